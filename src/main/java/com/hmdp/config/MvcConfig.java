@@ -1,9 +1,12 @@
 package com.hmdp.config;
 
 import com.hmdp.utils.LoginInterceptor;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.RateLimitInterceptor;
+import com.hmdp.utils.RateLimiter;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SignedTokenManager;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -13,7 +16,13 @@ import javax.annotation.Resource;
 public class MvcConfig implements WebMvcConfigurer {
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private LoginSessionCache loginSessionCache;
+
+    @Resource
+    private SignedTokenManager signedTokenManager;
+
+    @Resource
+    private RateLimiter rateLimiter;
 
     /**
      * 添加拦截器
@@ -29,12 +38,17 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/shop-type/**",
                         "/upload/**",
                         "/blog/hot",
+                        "/blog/hot/scroll",
                         "/user/code",
-                        "/user/login"
+                        "/user/login",
+                        "/user/refresh"
                 ).order(1);
 
+        // 限流拦截器，在 token 刷新之后执行，可以按用户限流
+        registry.addInterceptor(new RateLimitInterceptor(rateLimiter)).addPathPatterns("/**").order(2);
+
         // 登录拦截器器
         // order 越小越先执行
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0);
+        registry.addInterceptor(new RefreshTokenInterceptor(loginSessionCache, signedTokenManager)).addPathPatterns("/**").order(0);
     }
 }
@@ -0,0 +1,59 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 限流策略配置，见 application.yaml 中的 hmdp.rate-limit
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.rate-limit")
+public class RateLimitProperties {
+
+    private List<Policy> policies = new ArrayList<>();
+
+    @Data
+    public static class Policy {
+        /**
+         * 策略名，用于Redis的key和拒绝次数统计
+         */
+        private String name;
+        /**
+         * 请求路径，支持Ant风格的通配符
+         */
+        private String path;
+        /**
+         * 请求方法，为空表示不限
+         */
+        private String method;
+        /**
+         * 限流的维度：ip、user（未登录时按ip）、param:参数名
+         */
+        private String key = "ip";
+        /**
+         * 限流算法：token-bucket 令牌桶，允许一定的突发；sliding-window 滑动窗口，严格限制窗口内的次数
+         */
+        private String algorithm = "token-bucket";
+        /**
+         * 令牌桶的容量，或滑动窗口内最多放行的次数
+         */
+        private int limit;
+        /**
+         * 令牌桶每秒补充的令牌数
+         */
+        private double rate;
+        /**
+         * 滑动窗口的长度，秒
+         */
+        private long window;
+        /**
+         * 本机预限流：每个key每秒最多放行的请求数，超过的请求不访问Redis直接拒绝，0表示不启用
+         */
+        private int localLimit;
+    }
+}
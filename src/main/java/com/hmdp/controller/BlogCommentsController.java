@@ -1,9 +1,12 @@
 package com.hmdp.controller;
 
 
-import org.springframework.web.bind.annotation.RequestMapping;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.BlogComments;
+import com.hmdp.service.IBlogCommentsService;
+import org.springframework.web.bind.annotation.*;
 
-import org.springframework.web.bind.annotation.RestController;
+import javax.annotation.Resource;
 
 /**
  * <p>
@@ -17,4 +20,47 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/blog-comments")
 public class BlogCommentsController {
 
+    @Resource
+    private IBlogCommentsService blogCommentsService;
+
+    /**
+     * 发表评论，parentId为空表示一级评论，否则是对该一级评论下的回复
+     * @param comment 评论数据
+     * @return 是否提交成功，评论异步审核入库，不返回评论id
+     */
+    @PostMapping
+    public Result saveComment(@RequestBody BlogComments comment) {
+        return blogCommentsService.saveComment(comment);
+    }
+
+    /**
+     * 滚动分页查询笔记的一级评论，按发表时间倒序
+     * @param blogId 笔记id
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return
+     */
+    @GetMapping("/of/blog")
+    public Result queryCommentsOfBlog(
+            @RequestParam("id") Long blogId,
+            @RequestParam(value = "cursor", required = false) String cursor) {
+        return blogCommentsService.queryCommentsOfBlog(blogId, cursor);
+    }
+
+    /**
+     * 滚动分页查询一级评论下的回复，按发表时间正序
+     * @param parentId 一级评论id
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return
+     */
+    @GetMapping("/replies")
+    public Result queryReplies(
+            @RequestParam("id") Long parentId,
+            @RequestParam(value = "cursor", required = false) String cursor) {
+        return blogCommentsService.queryReplies(parentId, cursor);
+    }
+
+    @PutMapping("/like/{id}")
+    public Result likeComment(@PathVariable("id") Long id) {
+        return blogCommentsService.likeComment(id);
+    }
 }
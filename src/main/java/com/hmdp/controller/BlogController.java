@@ -8,9 +8,12 @@ import com.hmdp.entity.Blog;
 import com.hmdp.entity.User;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.FeedNotifier;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.annotation.Resource;
 import java.util.List;
@@ -30,12 +33,25 @@ public class BlogController {
     @Resource
     private IBlogService blogService;
 
+    @Resource
+    private FeedNotifier feedNotifier;
+
 
     @PostMapping
     public Result saveBlog(@RequestBody Blog blog) {
         return blogService.saveBlog(blog);
     }
 
+    /**
+     * 编辑笔记
+     * @param blog 笔记数据
+     * @return 无
+     */
+    @PutMapping
+    public Result updateBlog(@RequestBody Blog blog) {
+        return blogService.updateBlog(blog);
+    }
+
     @PutMapping("/like/{id}")
     public Result likeBlog(@PathVariable("id") Long id) {
 
@@ -51,9 +67,25 @@ public class BlogController {
                 .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
+        blogService.fillThumbnails(records);
         return Result.ok(records);
     }
 
+    /**
+     * 滚动分页查询当前用户的blog
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return
+     */
+    @GetMapping("/of/me/scroll")
+    public Result queryMyBlogScroll(@RequestParam(value = "cursor", required = false) String cursor) {
+        return blogService.queryBlogOfUser(UserHolder.getUser().getId(), cursor);
+    }
+
+    @GetMapping("/hot/scroll")
+    public Result queryHotBlogScroll(@RequestParam(value = "cursor", required = false) String cursor) {
+        return blogService.queryHotBlogScroll(cursor);
+    }
+
     @GetMapping("/hot")
     public Result queryHotBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
 
@@ -85,9 +117,23 @@ public class BlogController {
                 .eq("user_id", id).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
+        blogService.fillThumbnails(records);
         return Result.ok(records);
     }
 
+    /**
+     * 根据用户id滚动分页查询blog
+     * @param id
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return
+     */
+    @GetMapping("/of/user/scroll")
+    public Result queryBlogByUserIdScroll(
+            @RequestParam("id") Long id,
+            @RequestParam(value = "cursor", required = false) String cursor) {
+        return blogService.queryBlogOfUser(id, cursor);
+    }
+
     @GetMapping("/of/follow")
     public Result queryBlogOfFollow(
             @RequestParam(value = "lastId") Long max,
@@ -95,4 +141,23 @@ public class BlogController {
 
         return blogService.queryBlogOfFollow(max, offset);
     }
+
+    /**
+     * 查询feed中比已读位置新的笔记数量，用于展示未读角标
+     * @param since 客户端的已读时间戳，不传则使用服务端记录的已读位置
+     * @return 未读数量
+     */
+    @GetMapping("/of/follow/unread")
+    public Result queryFollowUnread(@RequestParam(value = "since", required = false) Long since) {
+        return blogService.queryFollowUnread(since);
+    }
+
+    /**
+     * 订阅feed新内容通知（SSE），收到通知后再查询feed，代替客户端轮询
+     * @return
+     */
+    @GetMapping(value = "/of/follow/notify", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribeFollow() {
+        return feedNotifier.subscribe(UserHolder.getUser().getId());
+    }
 }
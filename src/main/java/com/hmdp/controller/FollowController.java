@@ -6,6 +6,7 @@ import com.hmdp.service.IFollowService;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.util.List;
 
 /**
  * <p>
@@ -41,10 +42,42 @@ public class FollowController {
         return followService.isFollow(followUserId);
     }
 
+    /**
+     * 批量查询是否关注，用于一页用户列表
+     * @param followUserIds 逗号分隔的用户id，最多 MAX_PAGE_SIZE 个
+     * @return followUserId -> 是否关注
+     */
+    @GetMapping("/or/not")
+    public Result isFollowBatch(@RequestParam("ids") List<Long> followUserIds) {
+        return followService.isFollowBatch(followUserIds);
+    }
+
+    /**
+     * 可能认识的人
+     * @return
+     */
+    @GetMapping("/recommend")
+    public Result queryRecommend() {
+        return followService.queryRecommend();
+    }
+
     @GetMapping("/common/{id}")
     public Result followCommon(@PathVariable("id") Long id) {
         return followService.followCommons(id);
     }
 
+    /**
+     * 滚动分页查询共同关注，第一页附带估算的总数
+     * @param id 对方用户id
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return
+     */
+    @GetMapping("/common/scroll")
+    public Result followCommonScroll(
+            @RequestParam("id") Long id,
+            @RequestParam(value = "cursor", required = false) String cursor) {
+        return followService.followCommonsScroll(id, cursor);
+    }
+
 
 }
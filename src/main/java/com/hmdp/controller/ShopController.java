@@ -92,6 +92,7 @@ public class ShopController {
         Page<Shop> page = shopService.query()
                 .like(StrUtil.isNotBlank(name), "name", name)
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+        shopService.fillThumbnails(page.getRecords());
         // 返回数据
         return Result.ok(page.getRecords());
     }
@@ -3,11 +3,13 @@ package com.hmdp.controller;
 import cn.hutool.core.io.FileUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.Result;
+import com.hmdp.utils.ImageThumbnailer;
 import com.hmdp.utils.SystemConstants;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.annotation.Resource;
 import java.io.File;
 import java.io.IOException;
 import java.util.UUID;
@@ -17,6 +19,9 @@ import java.util.UUID;
 @RequestMapping("upload")
 public class UploadController {
 
+    @Resource
+    private ImageThumbnailer imageThumbnailer;
+
     @PostMapping("blog")
     public Result uploadImage(@RequestParam("file") MultipartFile image) {
         try {
@@ -26,6 +31,8 @@ public class UploadController {
             String fileName = createNewFileName(originalFilename);
             // 保存文件
             image.transferTo(new File(SystemConstants.IMAGE_UPLOAD_DIR, fileName));
+            // 后台生成缩略图
+            imageThumbnailer.submit(fileName);
             // 返回结果
             log.debug("文件上传成功，{}", fileName);
             return Result.ok(fileName);
@@ -36,11 +43,12 @@ public class UploadController {
 
     @GetMapping("/blog/delete")
     public Result deleteBlogImg(@RequestParam("name") String filename) {
-        File file = new File(SystemConstants.IMAGE_UPLOAD_DIR, filename);
-        if (file.isDirectory()) {
+        File file = ImageThumbnailer.resolveUploadFile(filename);
+        if (file == null || file.isDirectory()) {
             return Result.fail("错误的文件名称");
         }
         FileUtil.del(file);
+        imageThumbnailer.delete(filename);
         return Result.ok();
     }
 
@@ -6,7 +6,6 @@ import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
-import com.hmdp.entity.UserInfo;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
 import com.hmdp.utils.UserHolder;
@@ -14,6 +13,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 
 /**
@@ -50,21 +50,43 @@ public class UserController {
      * @param loginForm 登录参数，包含手机号、验证码；或者手机号、密码
      */
     @PostMapping("/login")
-    public Result login(@RequestBody LoginFormDTO loginForm, HttpSession session){
+    public Result login(@RequestBody LoginFormDTO loginForm, HttpSession session, HttpServletRequest request){
         // 实现登录功能
-        Result login = userService.login(loginForm, session);
+        Result login = userService.login(loginForm, session, request);
         // 将 token 返回到前端
         return Result.ok(login.getData());
     }
 
+    /**
+     * 刷新令牌，签名令牌模式下访问令牌过期后调用
+     * @param refreshToken 登录时返回的刷新令牌
+     * @return 新的访问令牌和刷新令牌
+     */
+    @PostMapping("/refresh")
+    public Result refresh(@RequestParam("refreshToken") String refreshToken){
+        return userService.refreshToken(refreshToken);
+    }
+
     /**
      * 登出功能
+     * @param token 当前请求的token
+     * @param refreshToken 签名令牌模式下的刷新令牌，签名令牌模式下必填
      * @return 无
      */
     @PostMapping("/logout")
-    public Result logout(){
-        // TODO 实现登出功能
-        return Result.fail("功能未完成");
+    public Result logout(@RequestHeader("authorization") String token,
+                         @RequestParam(value = "refreshToken", required = false) String refreshToken){
+        return userService.logout(token, refreshToken);
+    }
+
+    /**
+     * 退出所有设备的登录
+     * @param token 当前请求的token
+     * @return 无
+     */
+    @PostMapping("/logout/all")
+    public Result logoutAll(@RequestHeader("authorization") String token){
+        return userService.logoutAll(token);
     }
 
     @GetMapping("/me")
@@ -74,18 +96,20 @@ public class UserController {
         return Result.ok(user);
     }
 
+    /**
+     * 修改当前用户的昵称、头像
+     * @param userDTO 昵称、头像
+     * @return 无
+     */
+    @PutMapping("/me")
+    public Result updateMe(@RequestBody UserDTO userDTO){
+        return userService.updateMe(userDTO);
+    }
+
     @GetMapping("/info/{id}")
     public Result info(@PathVariable("id") Long userId){
-        // 查询详情
-        UserInfo info = userInfoService.getById(userId);
-        if (info == null) {
-            // 没有详情，应该是第一次查看详情
-            return Result.ok();
-        }
-        info.setCreateTime(null);
-        info.setUpdateTime(null);
-        // 返回
-        return Result.ok(info);
+        // 查询详情，粉丝数、关注数包含尚未同步到数据库的增量
+        return userInfoService.queryUserInfo(userId);
     }
 
     /**
@@ -0,0 +1,19 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LikeDTO {
+    /**
+     * 操作后是否点赞
+     */
+    private Boolean isLike;
+    /**
+     * 操作后的点赞数
+     */
+    private Integer liked;
+}
@@ -0,0 +1,17 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class LoginTokenDTO {
+    /**
+     * 访问令牌，放在请求头 authorization 中
+     */
+    private String token;
+    /**
+     * 刷新令牌，访问令牌过期后用于换取新的令牌，只能使用一次
+     */
+    private String refreshToken;
+}
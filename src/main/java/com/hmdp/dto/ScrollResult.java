@@ -9,4 +9,12 @@ public class ScrollResult {
     private List<?> list;
     private Long minTime;
     private Integer offset;
+    /**
+     * 下一页的游标，为空表示没有下一页
+     */
+    private String cursor;
+    /**
+     * 总数，可能是估算值，只在第一页返回
+     */
+    private Long total;
 }
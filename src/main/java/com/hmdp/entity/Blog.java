@@ -10,6 +10,7 @@ import lombok.experimental.Accessors;
 
 import java.io.Serializable;
 import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * <p>
@@ -66,6 +67,12 @@ public class Blog implements Serializable {
      */
     private String images;
 
+    /**
+     * 图片的缩略图地址，列表展示用
+     */
+    @TableField(exist = false)
+    private List<String> thumbnails;
+
     /**
      * 探店的文字描述
      */
@@ -10,6 +10,7 @@ import lombok.experimental.Accessors;
 
 import java.io.Serializable;
 import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * <p>
@@ -48,6 +49,12 @@ public class Shop implements Serializable {
      */
     private String images;
 
+    /**
+     * 图片的缩略图地址，列表展示用
+     */
+    @TableField(exist = false)
+    private List<String> thumbnails;
+
     /**
      * 商圈，例如陆家嘴
      */
@@ -2,6 +2,10 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.BlogComments;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+import java.util.Map;
 
 /**
  * <p>
@@ -13,4 +17,17 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface BlogCommentsMapper extends BaseMapper<BlogComments> {
 
+    /**
+     * 批量累加评论点赞数
+     * @param deltas commentId -> 点赞数增量
+     * @return
+     */
+    int incrLikedBatch(@Param("deltas") Map<Long, Long> deltas);
+
+    /**
+     * 批量插入评论，stream_id 已存在的评论忽略
+     * @param comments
+     * @return 插入的行数
+     */
+    int insertIgnoreBatch(@Param("comments") List<BlogComments> comments);
 }
@@ -2,6 +2,10 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.UserInfo;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * <p>
@@ -13,4 +17,24 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface UserInfoMapper extends BaseMapper<UserInfo> {
 
+    /**
+     * 批量补齐用户详情，已存在的忽略
+     * @param userIds
+     * @return
+     */
+    int insertIgnoreBatch(@Param("userIds") Collection<Long> userIds);
+
+    /**
+     * 批量累加粉丝数
+     * @param deltas userId -> 粉丝数增量
+     * @return
+     */
+    int incrFansBatch(@Param("deltas") Map<Long, Long> deltas);
+
+    /**
+     * 批量累加关注数
+     * @param deltas userId -> 关注数增量
+     * @return
+     */
+    int incrFolloweeBatch(@Param("deltas") Map<Long, Long> deltas);
 }
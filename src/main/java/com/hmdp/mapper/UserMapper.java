@@ -13,4 +13,10 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface UserMapper extends BaseMapper<User> {
 
+    /**
+     * 按手机号唯一索引插入，手机号已存在时不修改，通过 LAST_INSERT_ID(id) 取回已有用户的id
+     * @param user 回填新用户或已有用户的id
+     * @return 影响的行数
+     */
+    int upsertByPhone(User user);
 }
@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -16,8 +18,14 @@ public interface IBlogService extends IService<Blog> {
 
     Result queryHotBlog(Integer current);
 
+    Result queryHotBlogScroll(String cursor);
+
+    Result queryBlogOfUser(Long userId, String cursor);
+
     Result queryBlogById(Long id);
 
+    Result updateBlog(Blog blog);
+
     Result likeBlog(Long id);
 
     Result queryBlogLikes(Long id);
@@ -25,4 +33,8 @@ public interface IBlogService extends IService<Blog> {
     Result saveBlog(Blog blog);
 
     Result queryBlogOfFollow(Long max, Integer offset);
+
+    Result queryFollowUnread(Long since);
+
+    void fillThumbnails(List<Blog> blogs);
 }
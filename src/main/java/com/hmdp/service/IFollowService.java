@@ -4,6 +4,10 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Follow;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -18,5 +22,39 @@ public interface IFollowService extends IService<Follow> {
 
     Result isFollow(Long followUserId);
 
+    Result isFollowBatch(List<Long> followUserIds);
+
     Result followCommons(Long id);
+
+    Result followCommonsScroll(Long id, String cursor);
+
+    Result queryRecommend();
+
+    /**
+     * 从本地文件批量导入关注关系，文件每行一条：userId,followUserId
+     * @param file
+     * @return 读取的关注关系条数
+     * @throws IOException
+     */
+    long importFollows(Path file) throws IOException;
+
+    /**
+     * 导出关注关系的二进制邻接表快照，供离线分析
+     * @param file
+     * @return 导出的关注关系条数
+     * @throws IOException
+     */
+    long exportFollowGraph(Path file) throws IOException;
+
+    /**
+     * 确保用户的关注集合 follows:{userId} 已加载到Redis，不存在时从数据库重建
+     * @param userId
+     */
+    void loadFollows(Long userId);
+
+    /**
+     * 确保用户的粉丝集合 fans:{userId} 已加载到Redis，不存在时从数据库重建
+     * @param userId
+     */
+    void loadFans(Long userId);
 }
@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.UserInfo;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,12 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IUserInfoService extends IService<UserInfo> {
 
+    Result queryUserInfo(Long userId);
+
+    /**
+     * 查询用户的粉丝数，包含尚未同步到数据库的增量
+     * @param userId
+     * @return
+     */
+    int queryFans(Long userId);
 }
@@ -3,9 +3,13 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * <p>
@@ -19,10 +23,30 @@ public interface IUserService extends IService<User> {
 
     Result sendCode(String phone, HttpSession session);
 
-    Result login(LoginFormDTO loginForm, HttpSession session);
+    Result login(LoginFormDTO loginForm, HttpSession session, HttpServletRequest request);
 
     Result sign();
 
     Result signCount();
 
+    /**
+     * 批量查询用户卡片（id、昵称、头像），优先走缓存
+     * @param ids
+     * @return userId -> UserDTO
+     */
+    Map<Long, UserDTO> queryUserCards(Collection<Long> ids);
+
+    Result updateMe(UserDTO userDTO);
+
+    /**
+     * 用刷新令牌换取新的访问令牌和刷新令牌，仅签名令牌模式可用
+     * @param refreshToken
+     * @return
+     */
+    Result refreshToken(String refreshToken);
+
+    Result logout(String token, String refreshToken);
+
+    Result logoutAll(String token);
+
 }
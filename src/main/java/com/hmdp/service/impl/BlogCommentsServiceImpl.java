@@ -1,11 +1,56 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.LikeDTO;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
 import com.hmdp.entity.BlogComments;
 import com.hmdp.mapper.BlogCommentsMapper;
 import com.hmdp.service.IBlogCommentsService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IBlogService;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CommentFilter;
+import com.hmdp.utils.CounterFlusher;
+import com.hmdp.utils.CursorUtils;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
 /**
  * <p>
  *  服务实现类
@@ -14,7 +59,438 @@ import org.springframework.stereotype.Service;
  * @author
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class BlogCommentsServiceImpl extends ServiceImpl<BlogCommentsMapper, BlogComments> implements IBlogCommentsService {
 
+    /**
+     * 评论点赞与笔记点赞共用同一个脚本
+     */
+    private static final DefaultRedisScript<List<Long>> LIKE_SCRIPT;
+
+    /**
+     * 评论入库的线程池
+     */
+    private static final ExecutorService COMMENT_INGEST_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("like.lua"));
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Class<List<Long>> resultType = (Class) List.class;
+        LIKE_SCRIPT.setResultType(resultType);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CounterFlusher counterFlusher;
+
+    @Resource
+    private IBlogService blogService;
+
+    @Resource
+    private IUserService userService;
+
+    @Resource
+    private List<CommentFilter> commentFilters;
+
+    @Override
+    public Result saveComment(BlogComments comment) {
+        // 1.校验评论内容
+        String content = comment.getContent();
+        if (StrUtil.isBlank(content) || content.length() > 255) {
+            return Result.fail("评论内容不能为空，且不能超过255个字");
+        }
+        // 2.校验笔记是否存在
+        Long blogId = comment.getBlogId();
+        Blog blog = blogId == null ? null : cacheClient.queryWithPassThrough(
+                CACHE_BLOG_KEY, blogId, Blog.class, blogService::getById, CACHE_BLOG_TTL, TimeUnit.MINUTES);
+        if (blog == null) {
+            return Result.fail("笔记不存在");
+        }
+        // 3.校验回复关系：回复只挂在一级评论下，answerId是被回复的评论
+        Long parentId = comment.getParentId() == null ? 0L : comment.getParentId();
+        Long answerId = comment.getAnswerId() == null ? parentId : comment.getAnswerId();
+        if (parentId != 0) {
+            BlogComments parent = getById(parentId);
+            if (parent == null || !parent.getBlogId().equals(blogId) || !Long.valueOf(0).equals(parent.getParentId())) {
+                return Result.fail("回复的评论不存在");
+            }
+            if (!answerId.equals(parentId)) {
+                BlogComments answer = getById(answerId);
+                if (answer == null || !answer.getParentId().equals(parentId)) {
+                    return Result.fail("回复的评论不存在");
+                }
+            }
+        }
+        // 4.数据库跟不上时，消息队列积压过多，拒绝新的评论
+        Long backlog = stringRedisTemplate.opsForStream().size(COMMENT_STREAM_KEY);
+        if (backlog != null && backlog >= SystemConstants.COMMENT_INGEST_MAX_BACKLOG) {
+            return Result.fail("评论的人太多了，请稍后再试");
+        }
+        // 5.把评论写入消息队列，由后台线程审核、批量入库、累计评论数，请求直接返回
+        // XADD stream.comments * userId ? blogId ? parentId ? answerId ? content ? time ?
+        Map<String, String> task = new HashMap<>(8);
+        task.put("userId", UserHolder.getUser().getId().toString());
+        task.put("blogId", blogId.toString());
+        task.put("parentId", parentId.toString());
+        task.put("answerId", answerId.toString());
+        task.put("content", content);
+        task.put("time", String.valueOf(System.currentTimeMillis()));
+        stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(COMMENT_STREAM_KEY).ofMap(task));
+        return Result.ok();
+    }
+
+    /**
+     * 类初始化时执行
+     */
+    @PostConstruct
+    private void init() {
+        // 创建消费者组，已存在则忽略 XGROUP CREATE stream.comments g1 0 MKSTREAM
+        try {
+            stringRedisTemplate.opsForStream().createGroup(COMMENT_STREAM_KEY, ReadOffset.from("0"), COMMENT_STREAM_GROUP);
+        } catch (Exception e) {
+            log.debug("评论消费者组已存在");
+        }
+        COMMENT_INGEST_EXECUTOR.submit(new CommentIngestHandler());
+    }
+
+    private class CommentIngestHandler implements Runnable {
+
+        @Override
+        public void run() {
+            // 先处理上次宕机时未确认的评论
+            handleCommentPendingList();
+            while (true) {
+                try {
+                    // 1.批量获取消息队列中的评论 XREADGROUP GROUP g1 c1 COUNT 200 BLOCK 2000 STREAMS stream.comments >
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(COMMENT_STREAM_GROUP, "c1"),
+                            StreamReadOptions.empty().count(SystemConstants.COMMENT_INGEST_BATCH_SIZE).block(Duration.ofSeconds(2)),
+                            StreamOffset.create(COMMENT_STREAM_KEY, ReadOffset.lastConsumed())
+                    );
+                    // 2.判断是否为空
+                    if (list == null || list.isEmpty()) {
+                        continue;
+                    }
+                    // 3.审核并批量入库
+                    handleCommentRecords(list);
+                } catch (Exception e) {
+                    log.error("处理评论异常", e);
+                    handleCommentPendingList();
+                }
+            }
+        }
+    }
+
+    private void handleCommentPendingList() {
+        while (true) {
+            try {
+                // 1.获取pending-list中的评论 XREADGROUP GROUP g1 c1 COUNT 200 STREAMS stream.comments 0
+                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(COMMENT_STREAM_GROUP, "c1"),
+                        StreamReadOptions.empty().count(SystemConstants.COMMENT_INGEST_BATCH_SIZE),
+                        StreamOffset.create(COMMENT_STREAM_KEY, ReadOffset.from("0"))
+                );
+                // 2.判断是否为空
+                if (list == null || list.isEmpty()) {
+                    break;
+                }
+                // 3.投递次数过多的评论转入死信队列
+                list = deadLetterExhausted(list);
+                if (list.isEmpty()) {
+                    continue;
+                }
+                // 4.审核并批量入库，整批失败时逐条处理，找出失败的那一条，其余的正常入库
+                try {
+                    handleCommentRecords(list);
+                } catch (Exception e) {
+                    log.error("批量处理pending评论异常，逐条重试", e);
+                    for (MapRecord<String, Object, Object> record : list) {
+                        try {
+                            handleCommentRecords(Collections.singletonList(record));
+                        } catch (Exception ex) {
+                            log.error("处理pending评论异常, id: {}", record.getId(), ex);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                log.error("处理pending评论异常", e);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 把投递次数达到上限的评论移入死信队列
+     * @param records pending-list中读取的评论
+     * @return 其余需要继续处理的评论
+     */
+    private List<MapRecord<String, Object, Object>> deadLetterExhausted(List<MapRecord<String, Object, Object>> records) {
+        // 1.查询这批评论的投递次数 XPENDING stream.comments g1 firstId lastId count
+        PendingMessages pending = stringRedisTemplate.opsForStream().pending(COMMENT_STREAM_KEY, COMMENT_STREAM_GROUP,
+                Range.closed(records.get(0).getId().getValue(), records.get(records.size() - 1).getId().getValue()),
+                records.size());
+        Set<RecordId> exhausted = new HashSet<>();
+        for (PendingMessage message : pending) {
+            if (message.getTotalDeliveryCount() >= SystemConstants.COMMENT_INGEST_MAX_DELIVERIES) {
+                exhausted.add(message.getId());
+            }
+        }
+        if (exhausted.isEmpty()) {
+            return records;
+        }
+        // 2.在一个事务中写入死信队列，并确认、删除原消息
+        List<MapRecord<String, Object, Object>> rest = new ArrayList<>(records.size());
+        List<MapRecord<String, Object, Object>> dead = new ArrayList<>();
+        for (MapRecord<String, Object, Object> record : records) {
+            (exhausted.contains(record.getId()) ? dead : rest).add(record);
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.multi();
+            for (MapRecord<String, Object, Object> record : dead) {
+                Map<String, String> value = new HashMap<>(record.getValue().size() + 1);
+                record.getValue().forEach((k, v) -> value.put(k.toString(), v.toString()));
+                value.put("sourceId", record.getId().getValue());
+                conn.xAdd(StreamRecords.string(value).withStreamKey(COMMENT_DEAD_STREAM_KEY));
+                conn.xAck(COMMENT_STREAM_KEY, COMMENT_STREAM_GROUP, record.getId());
+                conn.xDel(COMMENT_STREAM_KEY, record.getId());
+            }
+            conn.exec();
+            return null;
+        });
+        log.error("评论多次处理失败，已转入死信队列 {}: {}", COMMENT_DEAD_STREAM_KEY, exhausted);
+        return rest;
+    }
+
+    private void handleCommentRecords(List<MapRecord<String, Object, Object>> records) {
+        // 1.解析评论，并交给所有审核器审核，不通过的标记为禁止查看
+        List<BlogComments> comments = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            Map<Object, Object> value = record.getValue();
+            String content = value.get("content").toString();
+            boolean accepted = commentFilters.stream().allMatch(filter -> filter.accept(content));
+            long time = Long.parseLong(value.get("time").toString());
+            comments.add(new BlogComments()
+                    .setUserId(Long.valueOf(value.get("userId").toString()))
+                    .setBlogId(Long.valueOf(value.get("blogId").toString()))
+                    .setParentId(Long.valueOf(value.get("parentId").toString()))
+                    .setAnswerId(Long.valueOf(value.get("answerId").toString()))
+                    .setContent(content)
+                    .setLiked(0)
+                    .setStatus(accepted ? 0 : 2)
+                    .setStreamId(record.getId().getValue())
+                    .setCreateTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault())));
+        }
+        // 2.批量插入，stream_id 唯一，上次入库后宕机、重新投递的评论会被忽略
+        getBaseMapper().insertIgnoreBatch(comments);
+        // 3.按笔记分组累计通过审核的评论数，由定时任务同步到数据库
+        // 评论数与消息确认在同一个事务中，消息还在pending-list就说明评论数没有累计，重新投递时全部累计
+        List<BlogComments> accepted = comments.stream().filter(c -> c.getStatus() == 0).collect(Collectors.toList());
+        Map<Long, Long> counts = accepted.stream()
+                .collect(Collectors.groupingBy(BlogComments::getBlogId, Collectors.counting()));
+        // 4.有新的一级评论的笔记，删除第一页缓存
+        Set<Long> topBlogIds = accepted.stream()
+                .filter(c -> c.getParentId() == 0)
+                .map(BlogComments::getBlogId)
+                .collect(Collectors.toSet());
+        // 5.在一个事务中累计评论数、确认并删除已处理的消息，这样stream的长度就是尚未入库的积压量
+        RecordId[] recordIds = records.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.multi();
+            counts.forEach((blogId, count) -> conn.hIncrBy(BLOG_COMMENTS_DELTA_KEY, blogId.toString(), count));
+            for (Long blogId : topBlogIds) {
+                conn.del(CACHE_COMMENTS_KEY + blogId);
+            }
+            conn.xAck(COMMENT_STREAM_KEY, COMMENT_STREAM_GROUP, recordIds);
+            conn.xDel(COMMENT_STREAM_KEY, recordIds);
+            conn.exec();
+            return null;
+        });
+    }
+
+    @Override
+    public Result queryCommentsOfBlog(Long blogId, String cursor) {
+        // 1.解析游标：上一页最后一条评论的id
+        Long lastId;
+        try {
+            String[] parts = CursorUtils.decode(cursor, 1);
+            lastId = parts == null ? null : Long.valueOf(parts[0]);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("无效的游标");
+        }
+        // 2.多查一条用来判断是否还有下一页
+        int count = SystemConstants.MAX_PAGE_SIZE;
+        List<BlogComments> comments;
+        if (lastId != null) {
+            comments = queryTopComments(blogId, lastId, count + 1);
+        } else {
+            // 2.1.第一页是热点笔记中访问最多的，走缓存，发表一级评论时删除
+            String key = CACHE_COMMENTS_KEY + blogId;
+            String json = stringRedisTemplate.opsForValue().get(key);
+            if (json != null) {
+                comments = JSONUtil.toList(json, BlogComments.class);
+            } else {
+                comments = queryTopComments(blogId, null, count + 1);
+                stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(comments), CACHE_COMMENTS_TTL, TimeUnit.MINUTES);
+            }
+        }
+        return Result.ok(toScrollResult(comments, count));
+    }
+
+    @Override
+    public Result queryReplies(Long parentId, String cursor) {
+        // 1.解析游标：上一页最后一条回复的id
+        Long lastId;
+        try {
+            String[] parts = CursorUtils.decode(cursor, 1);
+            lastId = parts == null ? null : Long.valueOf(parts[0]);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("无效的游标");
+        }
+        // 2.select * from tb_blog_comments where parent_id = ? and status = 0 and id > ? order by id limit ?
+        // 走索引 (parent_id, id)
+        int count = SystemConstants.MAX_PAGE_SIZE;
+        List<BlogComments> replies = query()
+                .eq("parent_id", parentId)
+                .eq("status", 0)
+                .gt(lastId != null, "id", lastId)
+                .orderByAsc("id")
+                .last("LIMIT " + (count + 1))
+                .list();
+        return Result.ok(toScrollResult(replies, count));
+    }
+
+    @Override
+    public Result likeComment(Long id) {
+        // 1.获取登录用户
+        Long userId = UserHolder.getUser().getId();
+        // 2.判断评论是否存在，查询评论缓存，不必每次点赞都查数据库
+        BlogComments comment = cacheClient.queryWithPassThrough(
+                CACHE_COMMENT_KEY, id, BlogComments.class, this::getById, CACHE_COMMENT_TTL, TimeUnit.MINUTES);
+        if (comment == null) {
+            return Result.fail("评论不存在");
+        }
+        // 3.一次脚本调用完成：判断是否点赞、点赞或取消点赞、更新点赞数增量
+        List<Long> result = stringRedisTemplate.execute(
+                LIKE_SCRIPT,
+                Arrays.asList(COMMENT_LIKED_KEY + id, COMMENT_LIKED_DELTA_KEY),
+                id.toString(), userId.toString(), String.valueOf(System.currentTimeMillis())
+        );
+        // 4.返回操作后的点赞状态与点赞数
+        boolean isLike = result.get(0) == 1;
+        int liked = comment.getLiked() == null ? 0 : comment.getLiked();
+        return Result.ok(new LikeDTO(isLike, (int) Math.max(liked + result.get(1), 0)));
+    }
+
+    /**
+     * 定时把Redis中累计的评论点赞数增量批量同步到数据库
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void flushLikedDelta() {
+        counterFlusher.flush(COMMENT_LIKED_DELTA_KEY, batch -> {
+            getBaseMapper().incrLikedBatch(batch);
+            // 数据库已包含这部分增量，删除评论缓存，以及相关笔记的第一页评论缓存
+            stringRedisTemplate.delete(batch.keySet().stream().map(commentId -> CACHE_COMMENT_KEY + commentId).collect(Collectors.toList()));
+            Set<Long> blogIds = query().select("DISTINCT blog_id")
+                    .in("id", batch.keySet())
+                    .eq("parent_id", 0)
+                    .list()
+                    .stream().map(BlogComments::getBlogId).collect(Collectors.toSet());
+            stringRedisTemplate.delete(blogIds.stream().map(blogId -> CACHE_COMMENTS_KEY + blogId).collect(Collectors.toList()));
+        });
+    }
+
+    /**
+     * 按id倒序查询笔记的一级评论，走索引 (blog_id, parent_id, id)
+     * @param blogId
+     * @param lastId 上一页最后一条评论的id，第一页为null
+     * @param limit
+     * @return
+     */
+    private List<BlogComments> queryTopComments(Long blogId, Long lastId, int limit) {
+        return query()
+                .eq("blog_id", blogId)
+                .eq("parent_id", 0)
+                .eq("status", 0)
+                .lt(lastId != null, "id", lastId)
+                .orderByDesc("id")
+                .last("LIMIT " + limit)
+                .list();
+    }
+
+    /**
+     * 截取一页评论并生成下一页的游标，查询评论的用户以及是否被点赞
+     * @param comments 多查了一条的评论列表
+     * @param count 每页条数
+     * @return
+     */
+    private ScrollResult toScrollResult(List<BlogComments> comments, int count) {
+        ScrollResult r = new ScrollResult();
+        if (comments.size() > count) {
+            comments = comments.subList(0, count);
+            r.setCursor(CursorUtils.encode(comments.get(count - 1).getId()));
+        }
+        fillComments(comments);
+        r.setList(comments);
+        return r;
+    }
+
+    /**
+     * 批量查询评论的用户，尚未同步到数据库的点赞数增量，以及当前登录用户是否点赞
+     * @param comments
+     */
+    private void fillComments(List<BlogComments> comments) {
+        if (comments.isEmpty()) {
+            return;
+        }
+        // 1.批量查询用户卡片
+        Set<Long> userIds = comments.stream().map(BlogComments::getUserId).collect(Collectors.toSet());
+        Map<Long, UserDTO> users = userService.queryUserCards(userIds);
+        for (BlogComments comment : comments) {
+            UserDTO user = users.get(comment.getUserId());
+            if (user != null) {
+                comment.setName(user.getNickName());
+                comment.setIcon(user.getIcon());
+            }
+        }
+        // 2.通过管道一次性查询点赞数增量 HMGET，以及是否点赞 ZSCORE
+        UserDTO user = UserHolder.getUser();
+        String member = user == null ? null : user.getId().toString();
+        String[] commentIds = comments.stream().map(comment -> comment.getId().toString()).toArray(String[]::new);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hMGet(COMMENT_LIKED_DELTA_KEY, commentIds);
+            if (member != null) {
+                for (String commentId : commentIds) {
+                    conn.zScore(COMMENT_LIKED_KEY + commentId, member);
+                }
+            }
+            return null;
+        });
+        List<?> deltas = (List<?>) results.get(0);
+        for (int i = 0; i < comments.size(); i++) {
+            BlogComments comment = comments.get(i);
+            Object delta = deltas.get(i);
+            if (delta != null) {
+                int liked = comment.getLiked() == null ? 0 : comment.getLiked();
+                comment.setLiked(Math.max(liked + Integer.parseInt(delta.toString()), 0));
+            }
+            if (member != null) {
+                comment.setIsLike(results.get(i + 1) != null);
+            }
+        }
+    }
 }
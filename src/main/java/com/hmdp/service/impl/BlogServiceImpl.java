@@ -1,36 +1,69 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.LikeDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.entity.Follow;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IFollowService;
+import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CounterFlusher;
+import com.hmdp.utils.CursorUtils;
+import com.hmdp.utils.FeedNotifier;
+import com.hmdp.utils.ImageThumbnailer;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.DefaultTypedTuple;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 import static com.hmdp.dto.Result.ok;
-import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
-import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -40,9 +73,50 @@ import static com.hmdp.utils.RedisConstants.FEED_KEY;
  * @author
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
+    /**
+     * 处理feed推送任务的线程
+     */
+    private static final ExecutorService FEED_FANOUT_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * 并行补充列表信息的线程，任务中可以取到提交时的登录用户。
+     * 每个列表请求提交一个任务，按请求并发数设置线程数，队列有界，排满后由请求线程自己执行
+     */
+    private static final ExecutorService BLOG_FILL_EXECUTOR = UserHolder.wrap(new ThreadPoolExecutor(
+            SystemConstants.BLOG_FILL_THREADS, SystemConstants.BLOG_FILL_THREADS, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(SystemConstants.BLOG_FILL_QUEUE_SIZE), new ThreadPoolExecutor.CallerRunsPolicy()));
+
+    private static final DefaultRedisScript<List<String>> FEED_PUSH_SCRIPT;
+
+    private static final DefaultRedisScript<Long> FEED_ACTIVE_SCRIPT;
+
+    private static final DefaultRedisScript<List<Long>> LIKE_SCRIPT;
+
+
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("like.lua"));
+        LIKE_SCRIPT.setResultType(resultType());
+        FEED_PUSH_SCRIPT = new DefaultRedisScript<>();
+        FEED_PUSH_SCRIPT.setLocation(new ClassPathResource("feed_push.lua"));
+        FEED_PUSH_SCRIPT.setResultType(resultType());
+        FEED_ACTIVE_SCRIPT = new DefaultRedisScript<>();
+        FEED_ACTIVE_SCRIPT.setLocation(new ClassPathResource("feed_active.lua"));
+        FEED_ACTIVE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 脚本返回列表时的结果类型
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> Class<List<T>> resultType() {
+        return (Class) List.class;
+    }
+
     @Resource
     private IUserService userService;
 
@@ -52,104 +126,326 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private IFollowService followService;
 
+    @Resource
+    private IUserInfoService userInfoService;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CounterFlusher counterFlusher;
+
+    @Resource
+    private FeedNotifier feedNotifier;
+
+    @Resource
+    private ImageThumbnailer imageThumbnailer;
+
     @Override
     public Result queryHotBlog(Integer current) {
-        // 根据用户查询
-        Page<Blog> page = query()
-                .orderByDesc("liked")
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        // 查询用户，查用户是否给blog点赞
-        records.forEach(blog ->{
-            this.queryBlogUser(blog);
-            this.isBlogLiked(blog);
-        });
+        // 1.从热度排行榜分页查询笔记id，不需要数据库排序和count
+        int from = (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+        Set<String> members = stringRedisTemplate.opsForZSet()
+                .reverseRange(BLOG_HOT_KEY, from, from + SystemConstants.MAX_PAGE_SIZE - 1);
+        if (members == null || members.isEmpty()) {
+            return ok(Collections.emptyList());
+        }
+        List<Long> ids = members.stream().map(Long::valueOf).collect(Collectors.toList());
+        // 2.从缓存批量查询笔记
+        List<Blog> records = queryBlogsWithCache(ids);
+        // 3.批量查询用户，查用户是否给blog点赞，列表只返回缩略图
+        fillBlogs(records);
+        fillThumbnails(records);
 
         return ok(records);
     }
 
+    @Override
+    public Result queryHotBlogScroll(String cursor) {
+        // 1.解析游标：上一页最小的热度，以及与之热度相同、已经返回的条数
+        double max = Double.POSITIVE_INFINITY;
+        int offset = 0;
+        try {
+            String[] parts = CursorUtils.decode(cursor, 2);
+            if (parts != null) {
+                max = Double.parseDouble(parts[0]);
+                offset = Integer.parseInt(parts[1]);
+            }
+        } catch (IllegalArgumentException e) {
+            return Result.fail("无效的游标");
+        }
+        // 2.ZREVRANGEBYSCORE key max -inf WITHSCORES LIMIT offset count
+        int count = SystemConstants.MAX_PAGE_SIZE;
+        Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet()
+                .reverseRangeByScoreWithScores(BLOG_HOT_KEY, Double.NEGATIVE_INFINITY, max, offset, count);
+        if (typedTuples == null || typedTuples.isEmpty()) {
+            return Result.ok(new ScrollResult());
+        }
+        // 3.解析数据：blogId、最小热度、与最小热度相同的条数
+        List<Long> ids = new ArrayList<>(typedTuples.size());
+        double minScore = 0;
+        int os = 0;
+        for (ZSetOperations.TypedTuple<String> tuple : typedTuples) {
+            ids.add(Long.valueOf(tuple.getValue()));
+            double score = tuple.getScore();
+            if (os > 0 && score == minScore) {
+                os++;
+            } else {
+                minScore = score;
+                os = 1;
+            }
+        }
+        os = minScore == max ? os + offset : os;
+        // 4.从缓存批量查询笔记，查询用户，查用户是否给blog点赞
+        List<Blog> blogs = queryBlogsWithCache(ids);
+        fillBlogs(blogs);
+        fillThumbnails(blogs);
+        // 5.封装并返回，不足一页说明没有下一页
+        ScrollResult r = new ScrollResult();
+        r.setList(blogs);
+        if (typedTuples.size() == count) {
+            r.setCursor(CursorUtils.encode(minScore, os));
+        }
+        return Result.ok(r);
+    }
+
+    @Override
+    public Result queryBlogOfUser(Long userId, String cursor) {
+        // 1.解析游标：上一页最后一条的 (create_time, id)
+        LocalDateTime lastTime = null;
+        Long lastId = null;
+        try {
+            String[] parts = CursorUtils.decode(cursor, 2);
+            if (parts != null) {
+                lastTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(Long.parseLong(parts[0])), ZoneId.systemDefault());
+                lastId = Long.valueOf(parts[1]);
+            }
+        } catch (IllegalArgumentException | DateTimeException e) {
+            return Result.fail("无效的游标");
+        }
+        // 2.按 (create_time, id) 倒序查询，走索引 (user_id, create_time, id)，不需要count和offset
+        // 多查一条用来判断是否还有下一页
+        int count = SystemConstants.MAX_PAGE_SIZE;
+        LocalDateTime time = lastTime;
+        Long id = lastId;
+        List<Blog> blogs = query()
+                .eq("user_id", userId)
+                .and(time != null, w -> w.lt("create_time", time)
+                        .or(o -> o.eq("create_time", time).lt("id", id)))
+                .orderByDesc("create_time").orderByDesc("id")
+                .last("LIMIT " + (count + 1))
+                .list();
+        // 3.封装并返回
+        ScrollResult r = new ScrollResult();
+        fillThumbnails(blogs);
+        if (blogs.size() > count) {
+            blogs = blogs.subList(0, count);
+            Blog last = blogs.get(count - 1);
+            long createTime = last.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            r.setCursor(CursorUtils.encode(createTime, last.getId()));
+        }
+        r.setList(blogs);
+        return Result.ok(r);
+    }
+
+    /**
+     * 定时刷新热度排行榜：按最新的点赞数和发布时间重新计算时间衰减后的热度，
+     * 排行榜为空时从数据库加载点赞最多的笔记
+     */
+    @Scheduled(fixedDelay = 10 * 60 * 1000)
+    public void refreshHotBlogs() {
+        // 1.查询排行榜中的笔记
+        Set<String> members = stringRedisTemplate.opsForZSet().range(BLOG_HOT_KEY, 0, -1);
+        List<Long> ids;
+        if (members == null || members.isEmpty()) {
+            // 1.1.冷启动 select id from tb_blog order by liked desc, id desc limit ?
+            ids = query().select("id")
+                    .orderByDesc("liked").orderByDesc("id")
+                    .last("LIMIT " + SystemConstants.BLOG_HOT_MAX_SIZE)
+                    .list()
+                    .stream().map(Blog::getId).collect(Collectors.toList());
+        } else {
+            ids = members.stream().map(Long::valueOf).collect(Collectors.toList());
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        // 2.从缓存批量查询笔记，并查询尚未同步到数据库的点赞数增量
+        List<Blog> blogs = queryBlogsWithCache(ids);
+        List<Object> deltas = stringRedisTemplate.opsForHash().multiGet(
+                BLOG_LIKED_DELTA_KEY,
+                blogs.stream().map(blog -> (Object) blog.getId().toString()).collect(Collectors.toList()));
+        // 3.重新计算热度
+        long now = System.currentTimeMillis();
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(blogs.size());
+        for (int i = 0; i < blogs.size(); i++) {
+            Blog blog = blogs.get(i);
+            Object delta = deltas.get(i);
+            int liked = blog.getLiked() == null ? 0 : blog.getLiked();
+            if (delta != null) {
+                liked += Integer.parseInt(delta.toString());
+            }
+            double score = Math.max(liked, 0) * hotDecay(blog, now);
+            tuples.add(new DefaultTypedTuple<>(blog.getId().toString(), score));
+        }
+        // 4.写回排行榜，移除已经不存在的笔记，只保留热度最高的若干篇
+        Set<Long> found = blogs.stream().map(Blog::getId).collect(Collectors.toSet());
+        String[] removed = ids.stream().filter(id -> !found.contains(id)).map(String::valueOf).toArray(String[]::new);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                conn.zAdd(BLOG_HOT_KEY, tuple.getScore(), tuple.getValue());
+            }
+            if (removed.length > 0) {
+                conn.zRem(BLOG_HOT_KEY, removed);
+            }
+            conn.zRemRange(BLOG_HOT_KEY, 0, -(SystemConstants.BLOG_HOT_MAX_SIZE + 1));
+            return null;
+        });
+    }
+
+    /**
+     * 热度的时间衰减系数 1 / (发布小时数 + 2) ^ gravity，热度 = 点赞数 * 衰减系数
+     * @param blog
+     * @param now
+     * @return
+     */
+    private static double hotDecay(Blog blog, long now) {
+        LocalDateTime createTime = blog.getCreateTime();
+        long created = createTime == null ? now : createTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        double hours = Math.max(now - created, 0) / (double) TimeUnit.HOURS.toMillis(1);
+        return 1 / Math.pow(hours + 2, SystemConstants.BLOG_HOT_GRAVITY);
+    }
+
+    /**
+     * 根据id批量查询笔记，优先走缓存，返回结果与ids顺序一致
+     * @param ids
+     * @return
+     */
+    private List<Blog> queryBlogsWithCache(List<Long> ids) {
+        Map<Long, Blog> blogMap = cacheClient.queryBatchWithPassThrough(
+                CACHE_BLOG_KEY, ids, Blog.class,
+                missIds -> listByIds(missIds).stream().collect(Collectors.toMap(Blog::getId, blog -> blog)),
+                CACHE_BLOG_TTL, TimeUnit.MINUTES);
+        List<Blog> blogs = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Blog blog = blogMap.get(id);
+            if (blog != null) {
+                blogs.add(blog);
+            }
+        }
+        return blogs;
+    }
+
     @Override
     public Result queryBlogById(Long id) {
-        // 查询笔记
-        Blog blog = getById(id);
+        // 查询笔记，缓存空值解决缓存穿透，互斥锁解决缓存击穿
+        Blog blog = cacheClient.queryWithMutex(
+                CACHE_BLOG_KEY, id, Blog.class, this::getById, CACHE_BLOG_TTL, TimeUnit.MINUTES);
         if (blog == null) {
             return Result.fail("笔记不存在");
         }
-        // 查询和blog相关的内容
-        queryBlogUser(blog);
-
-        // 查询blog是否被点赞
-        isBlogLiked(blog);
+        // 组装作者（用户卡片缓存）、点赞数增量，以及当前用户是否点赞
+        fillBlogs(Collections.singletonList(blog));
 
         return ok(blog);
     }
 
-    private void isBlogLiked(Blog blog) {
-        // 1.获取登录用户
-        UserDTO user = UserHolder.getUser();
-        if (user == null) {
-            // 用户未登录
-            return ;
+    @Override
+    @Transactional
+    public Result updateBlog(Blog blog) {
+        Long id = blog.getId();
+        if (id == null) {
+            return Result.fail("笔记id不能为空");
         }
-        Long userId = user.getId();
-        // 2.判断当前登录用户是否已经点赞
-        String key = BLOG_LIKED_KEY + blog.getId();
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        blog.setIsLike(score != null);
+        // 1.只有作者本人可以编辑
+        Blog old = getById(id);
+        if (old == null) {
+            return Result.fail("笔记不存在");
+        }
+        if (!old.getUserId().equals(UserHolder.getUser().getId())) {
+            return Result.fail("无权编辑该笔记");
+        }
+        // 2.更新数据库，只允许修改内容相关的字段，点赞数、评论数等计数不受影响
+        Blog update = new Blog()
+                .setId(id)
+                .setShopId(blog.getShopId())
+                .setTitle(blog.getTitle())
+                .setContent(blog.getContent())
+                .setImages(blog.getImages());
+        updateById(update);
+        // 3.删除笔记缓存，作者信息、点赞状态是分开缓存的，不受影响
+        stringRedisTemplate.delete(CACHE_BLOG_KEY + id);
+        return ok();
     }
 
     @Override
     public Result likeBlog(Long id) {
         // 1.获取登录用户
         Long userId = UserHolder.getUser().getId();
-        // 2.判断当前登录用户是否已经点赞
-        String key = BLOG_LIKED_KEY + id;
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        if (score == null) {
-            //3.如果未点赞，可以点赞
-            //3.1 数据库点赞数+1
-            boolean isSuccess = update().setSql("liked = liked + 1").eq("id", id).update();
-            //3.2 保存用户到Redis的set集合
-            // 数据库更新成功才更新redis
-            if (isSuccess) {
-                // 保存到SortedSet
-                stringRedisTemplate.opsForZSet().add(key,userId.toString(), System.currentTimeMillis());
-            }
-        } else {
-            //4.如果已点赞，取消点赞
-            //4.1 数据库点赞数-1
-            boolean isSuccess = update().setSql("liked = liked - 1").eq("id", id).update();
-            //4.2 把用户从Redis的SortedSet集合移除
-            if (isSuccess) {
-                // 从SortedSet中移除
-                stringRedisTemplate.opsForZSet().remove(key, userId.toString());
-            }
+        // 2.判断笔记是否存在
+        Blog blog = cacheClient.queryWithPassThrough(
+                CACHE_BLOG_KEY, id, Blog.class, this::getById, CACHE_BLOG_TTL, TimeUnit.MINUTES);
+        if (blog == null) {
+            return Result.fail("笔记不存在");
         }
-        return ok();
+        // 3.一次脚本调用完成：判断是否点赞、点赞或取消点赞、更新点赞数增量、刷新热度
+        // 数据库由定时任务批量同步，避免热点行锁
+        int liked = blog.getLiked() == null ? 0 : blog.getLiked();
+        long now = System.currentTimeMillis();
+        List<Long> result = stringRedisTemplate.execute(
+                LIKE_SCRIPT,
+                Arrays.asList(BLOG_LIKED_KEY + id, BLOG_LIKED_DELTA_KEY, BLOG_HOT_KEY, BLOG_LIKED_TOP_KEY + id),
+                id.toString(), userId.toString(), String.valueOf(now),
+                String.valueOf(liked), String.valueOf(hotDecay(blog, now))
+        );
+        // 4.返回操作后的点赞状态与点赞数
+        boolean isLike = result.get(0) == 1;
+        return ok(new LikeDTO(isLike, (int) Math.max(liked + result.get(1), 0)));
+    }
+
+    /**
+     * 定时把Redis中累计的点赞数、评论数增量批量同步到数据库
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void flushLikedDelta() {
+        // UPDATE tb_blog SET liked = liked + CASE id WHEN ? THEN ? ... END WHERE id IN (...)
+        counterFlusher.flush(BLOG_LIKED_DELTA_KEY, batch -> {
+            getBaseMapper().incrLikedBatch(batch);
+            // 数据库已包含这部分增量，删除笔记缓存，避免缓存中的旧点赞数再叠加增量
+            evictBlogCache(batch.keySet());
+        });
+        counterFlusher.flush(BLOG_COMMENTS_DELTA_KEY, batch -> {
+            getBaseMapper().incrCommentsBatch(batch);
+            evictBlogCache(batch.keySet());
+        });
+    }
+
+    private void evictBlogCache(Collection<Long> blogIds) {
+        stringRedisTemplate.delete(blogIds.stream().map(blogId -> CACHE_BLOG_KEY + blogId).collect(Collectors.toList()));
     }
 
     @Override
     public Result queryBlogLikes(Long id) {
-        // 查询top5的点赞用户
-        String key = BLOG_LIKED_KEY + id;
-        Set<String> top5 = stringRedisTemplate.opsForZSet().range(key, 0, 4);
-        if (top5 == null || top5.isEmpty()) {
-            return ok(Collections.emptySet());
-        }
-
-        // 解析用户id
-        List<Long> ids = top5.stream().map(Long::valueOf).collect(Collectors.toList());
-        String strIds = StrUtil.join(",", ids);
-        // 查询用户
-        //SELECT id,phone,password,nick_name,icon,create_time,update_time FROM tb_user
-        //WHERE id IN ( 5 , 1 ) ORDER BY FIELD(id, 5, 1);
-        List<UserDTO> userDTOList = userService.query()
-                .in("id", ids)
-                .last("ORDER BY FIELD(id, " + strIds + ")")
-                .list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+        // 1.查询前5名点赞用户的预览，点赞、取消点赞时由脚本维护
+        String topKey = BLOG_LIKED_TOP_KEY + id;
+        String top5 = stringRedisTemplate.opsForValue().get(topKey);
+        if (top5 == null) {
+            // 2.预览不存在，从点赞集合重建
+            Set<String> members = stringRedisTemplate.opsForZSet().range(BLOG_LIKED_KEY + id, 0, 4);
+            top5 = members == null ? "" : String.join(",", members);
+            // 只在预览仍不存在时写入，避免覆盖脚本刚刚写入的新值
+            stringRedisTemplate.opsForValue().setIfAbsent(topKey, top5);
+        }
+        if (top5.isEmpty()) {
+            return ok(Collections.emptyList());
+        }
+        // 3.解析用户id，从用户卡片缓存批量查询，按点赞顺序返回
+        List<Long> ids = Arrays.stream(top5.split(",")).map(Long::valueOf).collect(Collectors.toList());
+        Map<Long, UserDTO> users = userService.queryUserCards(ids);
+        List<UserDTO> userDTOList = ids.stream()
+                .map(users::get)
+                .filter(Objects::nonNull)
                 .collect(Collectors.toList());
 
         return ok(userDTOList);
@@ -165,42 +461,405 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if (!success) {
             return Result.fail("新增笔记失败");
         }
-        // 3 查询笔记作者的粉丝
-        // select * from tb_follow where follow_user_id = ?
-        List<Follow> follows = followService.query().eq("follow_user_id", user.getId()).list();
-        // 4 推送笔记id给所有粉丝
-        for (Follow follow : follows) {
-            // 获取粉丝id
-            Long userId = follow.getUserId();
-            // 推送
-            String key = FEED_KEY + userId;
-            stringRedisTemplate.opsForZSet().add(key, blog.getId().toString(), System.currentTimeMillis());
-        }
+        // 3 把推送任务写入消息队列，由后台线程写发件箱并推送给粉丝，发布请求直接返回
+        // XADD stream.feed * authorId ? blogId ? time ?
+        Map<String, String> task = new HashMap<>(4);
+        task.put("authorId", user.getId().toString());
+        task.put("blogId", blog.getId().toString());
+        task.put("time", String.valueOf(System.currentTimeMillis()));
+        stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(FEED_STREAM_KEY).ofMap(task));
         // 返回id
         return ok(blog.getId());
     }
 
+    /**
+     * 类初始化时执行
+     */
+    @PostConstruct
+    private void init() {
+        // 创建消费者组，已存在则忽略 XGROUP CREATE stream.feed g1 0 MKSTREAM
+        try {
+            stringRedisTemplate.opsForStream().createGroup(FEED_STREAM_KEY, ReadOffset.from("0"), FEED_STREAM_GROUP);
+        } catch (Exception e) {
+            log.debug("feed消费者组已存在");
+        }
+        FEED_FANOUT_EXECUTOR.submit(new FeedFanOutHandler());
+    }
+
+    private class FeedFanOutHandler implements Runnable {
+
+        @Override
+        public void run() {
+            // 先处理上次宕机时未完成的推送任务，从断点继续
+            handleFeedPendingList();
+            while (true) {
+                try {
+                    // 1.获取消息队列中的推送任务 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS stream.feed >
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(FEED_STREAM_GROUP, "c1"),
+                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
+                            StreamOffset.create(FEED_STREAM_KEY, ReadOffset.lastConsumed())
+                    );
+                    // 2.判断任务是否为空
+                    if (list == null || list.isEmpty()) {
+                        // 如果为null，说明没有消息，继续下一次循环
+                        continue;
+                    }
+                    // 3.推送
+                    handleFeedRecord(list.get(0));
+                } catch (Exception e) {
+                    log.error("处理feed推送异常", e);
+                    // 处理异常消息
+                    handleFeedPendingList();
+                }
+            }
+        }
+    }
+
+    private void handleFeedPendingList() {
+        while (true) {
+            try {
+                // 1.获取pending-list中的推送任务 XREADGROUP GROUP g1 c1 COUNT 1 STREAMS stream.feed 0
+                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(FEED_STREAM_GROUP, "c1"),
+                        StreamReadOptions.empty().count(1),
+                        StreamOffset.create(FEED_STREAM_KEY, ReadOffset.from("0"))
+                );
+                // 2.判断是否为空
+                if (list == null || list.isEmpty()) {
+                    // 如果为null，说明没有异常消息，结束循环
+                    break;
+                }
+                // 3.多次推送失败的任务转入死信队列，不再阻塞之后的推送
+                MapRecord<String, Object, Object> record = list.get(0);
+                if (deadLetterExhausted(record)) {
+                    continue;
+                }
+                // 4.从断点继续推送
+                handleFeedRecord(record);
+            } catch (Exception e) {
+                log.error("处理pending feed推送异常", e);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 投递次数达到上限的推送任务移入死信队列
+     * @param record pending-list中读取的推送任务
+     * @return 是否已移入死信队列
+     */
+    private boolean deadLetterExhausted(MapRecord<String, Object, Object> record) {
+        // 1.查询投递次数 XPENDING stream.feed g1 id id 1
+        String taskId = record.getId().getValue();
+        PendingMessages pending = stringRedisTemplate.opsForStream().pending(
+                FEED_STREAM_KEY, FEED_STREAM_GROUP, Range.closed(taskId, taskId), 1);
+        if (pending.isEmpty() || pending.get(0).getTotalDeliveryCount() < SystemConstants.FEED_FANOUT_MAX_DELIVERIES) {
+            return false;
+        }
+        // 2.在一个事务中写入死信队列，确认、删除原消息，并删除断点
+        Map<String, String> value = new HashMap<>(record.getValue().size() + 1);
+        record.getValue().forEach((k, v) -> value.put(k.toString(), v.toString()));
+        value.put("sourceId", taskId);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.multi();
+            conn.xAdd(StreamRecords.string(value).withStreamKey(FEED_DEAD_STREAM_KEY));
+            conn.xAck(FEED_STREAM_KEY, FEED_STREAM_GROUP, record.getId());
+            conn.xDel(FEED_STREAM_KEY, record.getId());
+            conn.hDel(FEED_FANOUT_CHECKPOINT_KEY, taskId);
+            conn.exec();
+            return null;
+        });
+        log.error("feed推送任务多次失败，已转入死信队列 {}: {}", FEED_DEAD_STREAM_KEY, taskId);
+        return true;
+    }
+
+    private void handleFeedRecord(MapRecord<String, Object, Object> record) {
+        // 1.解析数据
+        Map<Object, Object> value = record.getValue();
+        Long authorId = Long.valueOf(value.get("authorId").toString());
+        Long blogId = Long.valueOf(value.get("blogId").toString());
+        long time = Long.parseLong(value.get("time").toString());
+        String taskId = record.getId().getValue();
+        // 2.推送
+        fanOutBlog(taskId, authorId, blogId, time);
+        // 3.确认消息 XACK，并删除断点
+        stringRedisTemplate.opsForStream().acknowledge(FEED_STREAM_KEY, FEED_STREAM_GROUP, record.getId());
+        stringRedisTemplate.opsForHash().delete(FEED_FANOUT_CHECKPOINT_KEY, taskId);
+    }
+
+    /**
+     * 把笔记写入作者发件箱，并推送到粉丝的收件箱，大V只写发件箱，不推送。
+     * 每推送完一批粉丝就记录一次断点，宕机后从断点继续，重复推送是幂等的
+     * @param taskId 推送任务id，即消息id
+     * @param authorId
+     * @param blogId
+     * @param time
+     */
+    private void fanOutBlog(String taskId, Long authorId, Long blogId, long time) {
+        String member = blogId.toString();
+        // 1.写入作者的发件箱，并只保留最新的若干条，大V的粉丝在读取feed时从发件箱拉取
+        String outboxKey = FEED_OUTBOX_KEY + authorId;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.zAdd(outboxKey, time, member);
+            conn.zRemRange(outboxKey, 0, -(SystemConstants.FEED_OUTBOX_MAX_SIZE + 1));
+            return null;
+        });
+        // 2.判断作者是否为大V，大V的粉丝由各实例判断是否在线并通知
+        if (isBigV(authorId)) {
+            feedNotifier.notifyOutbox(blogId, authorId);
+            return;
+        }
+        // 3.读取断点，按主键游标分批查询粉丝，避免一次加载全部粉丝
+        // select id, user_id from tb_follow where follow_user_id = ? and id > ? order by id limit ?
+        Object checkpoint = stringRedisTemplate.opsForHash().get(FEED_FANOUT_CHECKPOINT_KEY, taskId);
+        long lastId = checkpoint == null ? 0 : Long.parseLong(checkpoint.toString());
+        String activeSince = String.valueOf(activeSince());
+        String maxSize = String.valueOf(SystemConstants.FEED_INBOX_MAX_SIZE);
+        while (true) {
+            List<Follow> follows = followService.query()
+                    .select("id", "user_id")
+                    .eq("follow_user_id", authorId)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + SystemConstants.FEED_FANOUT_BATCH_SIZE)
+                    .list();
+            if (follows.isEmpty()) {
+                break;
+            }
+            // 4.一批粉丝通过一次脚本推送，跳过不活跃的粉丝，并裁剪收件箱
+            String[] args = new String[follows.size() + 4];
+            args[0] = member;
+            args[1] = String.valueOf(time);
+            args[2] = activeSince;
+            args[3] = maxSize;
+            for (int i = 0; i < follows.size(); i++) {
+                args[i + 4] = follows.get(i).getUserId().toString();
+            }
+            List<String> pushed = stringRedisTemplate.execute(
+                    FEED_PUSH_SCRIPT, Collections.singletonList(FEED_ACTIVE_KEY), (Object[]) args);
+            // 4.1.只通知收件箱实际写入的粉丝，不活跃的粉丝没有推送，也不需要通知
+            if (pushed != null && !pushed.isEmpty()) {
+                feedNotifier.notifyInbox(blogId, pushed.stream().map(Long::valueOf).collect(Collectors.toList()));
+            }
+            // 5.记录断点
+            lastId = follows.get(follows.size() - 1).getId();
+            stringRedisTemplate.opsForHash().put(FEED_FANOUT_CHECKPOINT_KEY, taskId, String.valueOf(lastId));
+            if (follows.size() < SystemConstants.FEED_FANOUT_BATCH_SIZE) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 活跃截止时间戳，在此之后访问过feed的用户视为活跃
+     * @return
+     */
+    private long activeSince() {
+        return System.currentTimeMillis() - TimeUnit.DAYS.toMillis(SystemConstants.FEED_ACTIVE_DAYS);
+    }
+
+    /**
+     * 用户重新活跃时，从关注的作者的发件箱重建收件箱
+     * @param userId
+     */
+    private void rebuildInbox(Long userId) {
+        String inboxKey = FEED_KEY + userId;
+        // 1.查询关注的作者
+        followService.loadFollows(userId);
+        Set<String> followIds = stringRedisTemplate.opsForSet().members(FOLLOWS_KEY + userId);
+        if (followIds != null) {
+            followIds.remove(SystemConstants.FOLLOW_SET_PLACEHOLDER);
+        }
+        if (followIds == null || followIds.isEmpty()) {
+            stringRedisTemplate.delete(inboxKey);
+            return;
+        }
+        // 2.通过管道读取每个作者发件箱中最新的若干条
+        int maxSize = SystemConstants.FEED_INBOX_MAX_SIZE;
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String followId : followIds) {
+                conn.zRevRangeWithScores(FEED_OUTBOX_KEY + followId, 0, maxSize - 1);
+            }
+            return null;
+        });
+        // 3.合并，只保留最新的maxSize条
+        Set<ZSetOperations.TypedTuple<String>> tuples = results.stream()
+                .filter(result -> result instanceof Set)
+                .flatMap(result -> ((Set<?>) result).stream())
+                .map(o -> (ZSetOperations.TypedTuple<?>) o)
+                .sorted(Comparator.comparing(ZSetOperations.TypedTuple<?>::getScore).reversed())
+                .limit(maxSize)
+                .map(tuple -> new DefaultTypedTuple<>(String.valueOf(tuple.getValue()), tuple.getScore()))
+                .collect(Collectors.toSet());
+        // 4.覆盖收件箱
+        stringRedisTemplate.delete(inboxKey);
+        if (!tuples.isEmpty()) {
+            stringRedisTemplate.opsForZSet().add(inboxKey, tuples);
+        }
+    }
+
+    /**
+     * 回收长期不活跃用户的收件箱，这些用户推送时已被跳过，下次访问feed时重建
+     */
+    @Scheduled(cron = "0 0 4 * * ?")
+    public void evictColdInboxes() {
+        long coldBefore = activeSince();
+        while (true) {
+            // 1.分批查询不活跃的用户 ZRANGEBYSCORE feed:active 0 coldBefore LIMIT 0 1000
+            Set<String> userIds = stringRedisTemplate.opsForZSet()
+                    .rangeByScore(FEED_ACTIVE_KEY, 0, coldBefore, 0, 1000);
+            if (userIds == null || userIds.isEmpty()) {
+                break;
+            }
+            // 2.通过管道删除收件箱，并移出活跃集合
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (String userId : userIds) {
+                    conn.del(FEED_KEY + userId);
+                    conn.zRem(FEED_ACTIVE_KEY, userId);
+                }
+                return null;
+            });
+        }
+    }
+
+    /**
+     * 判断作者是否为大V，粉丝数超过阈值后记入大V集合，
+     * 之后不再回退，否则其粉丝会丢失已经只写在发件箱中的笔记
+     * @param authorId
+     * @return
+     */
+    private boolean isBigV(Long authorId) {
+        String member = authorId.toString();
+        if (BooleanUtil.isTrue(stringRedisTemplate.opsForSet().isMember(FEED_BIG_V_KEY, member))) {
+            return true;
+        }
+        // 粉丝数计数器，不需要 count(*) 粉丝表
+        int fans = userInfoService.queryFans(authorId);
+        if (fans < SystemConstants.FEED_BIG_V_THRESHOLD) {
+            return false;
+        }
+        stringRedisTemplate.opsForSet().add(FEED_BIG_V_KEY, member);
+        return true;
+    }
+
+    @Override
+    public Result queryFollowUnread(Long since) {
+        Long userId = UserHolder.getUser().getId();
+        // 1.没有指定时间戳，使用上次读取feed第一页时记录的已读位置
+        if (since == null) {
+            Object seen = stringRedisTemplate.opsForHash().get(FEED_SEEN_KEY, userId.toString());
+            since = seen == null ? 0 : Long.parseLong(seen.toString());
+        }
+        // 2.通过管道统计收件箱和关注的大V发件箱中比已读位置新的条数 ZCOUNT key (since +inf
+        List<String> keys = feedKeys(userId);
+        double min = since + 1;
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String key : keys) {
+                conn.zCount(key, min, Double.POSITIVE_INFINITY);
+            }
+            return null;
+        });
+        long unread = 0;
+        for (Object result : results) {
+            if (result != null) {
+                unread += (Long) result;
+            }
+        }
+        return ok(unread);
+    }
+
+    /**
+     * 用户的feed由自己的收件箱和关注的大V的发件箱组成
+     * @param userId
+     * @return
+     */
+    private List<String> feedKeys(Long userId) {
+        List<String> keys = new ArrayList<>();
+        keys.add(FEED_KEY + userId);
+        followService.loadFollows(userId);
+        Set<String> bigVs = stringRedisTemplate.opsForSet().intersect(FOLLOWS_KEY + userId, FEED_BIG_V_KEY);
+        if (bigVs != null) {
+            for (String bigV : bigVs) {
+                keys.add(FEED_OUTBOX_KEY + bigV);
+            }
+        }
+        return keys;
+    }
+
     @Override
     public Result queryBlogOfFollow(Long max, Integer offset) {
         // 1.获取当前用户
         Long userId = UserHolder.getUser().getId();
-        // 2.查询收件箱 ZREVRANGEBYSCORE key Max Min LIMIT offset count
-        String key = FEED_KEY + userId;
-        Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet()
-                .reverseRangeByScoreWithScores(key, 0, max, offset, 2);
-        // 3.非空判断
-        if (typedTuples == null || typedTuples.isEmpty()) {
+        // 1.1.读取第一页时刷新活跃时间，之前不活跃的用户收件箱不完整，需要先重建
+        if (offset == 0) {
+            Long inactive = stringRedisTemplate.execute(
+                    FEED_ACTIVE_SCRIPT,
+                    Collections.singletonList(FEED_ACTIVE_KEY),
+                    userId.toString(), String.valueOf(System.currentTimeMillis()), String.valueOf(activeSince())
+            );
+            if (inactive != null && inactive == 1) {
+                rebuildInbox(userId);
+            }
+        }
+        // 2.需要读取的feed：自己的收件箱 + 关注的大V的发件箱
+        List<String> keys = feedKeys(userId);
+        // 3.通过管道查询每个feed的前 offset + count 条 ZREVRANGEBYSCORE key Max Min LIMIT 0 count
+        int count = SystemConstants.FEED_PAGE_SIZE;
+        int limit = offset + count;
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String key : keys) {
+                conn.zRevRangeByScoreWithScores(key, 0, max, 0, limit);
+            }
+            return null;
+        });
+        // 4.合并去重，按时间戳倒序，时间戳相同按blogId倒序（与ZREVRANGEBYSCORE一致）
+        Map<String, Double> merged = new HashMap<>();
+        for (Object result : results) {
+            if (!(result instanceof Set)) {
+                continue;
+            }
+            for (Object o : (Set<?>) result) {
+                ZSetOperations.TypedTuple<?> tuple = (ZSetOperations.TypedTuple<?>) o;
+                merged.merge(String.valueOf(tuple.getValue()), tuple.getScore(), Math::max);
+            }
+        }
+        List<Map.Entry<String, Double>> typedTuples = merged.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue()
+                        .thenComparing(Map.Entry.comparingByKey())
+                        .reversed())
+                .skip(offset)
+                .limit(count)
+                .collect(Collectors.toList());
+        // 5.非空判断
+        if (typedTuples.isEmpty()) {
             return Result.ok();
         }
-        // 4.解析数据：blogId、minTime（时间戳）、offset
+        // 5.1.读取第一页时，把最新一条的时间戳记为已读位置
+        if (offset == 0) {
+            stringRedisTemplate.opsForHash().put(
+                    FEED_SEEN_KEY, userId.toString(), String.valueOf(typedTuples.get(0).getValue().longValue()));
+        }
+        // 6.解析数据：blogId、minTime（时间戳）、offset
         List<Long> ids = new ArrayList<>(typedTuples.size());
         long minTime = 0;
         int os = 1;
-        for (ZSetOperations.TypedTuple<String> tuple : typedTuples) {
-            // 4.1.获取id
-            ids.add(Long.valueOf(tuple.getValue()));
-            // 4.2.获取分数(时间戳）
-            long time = tuple.getScore().longValue();
+        for (Map.Entry<String, Double> tuple : typedTuples) {
+            // 6.1.获取id
+            ids.add(Long.valueOf(tuple.getKey()));
+            // 6.2.获取分数(时间戳）
+            long time = tuple.getValue().longValue();
             if(time == minTime){
                 os++;
             }else{
@@ -209,18 +868,14 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             }
         }
         os = minTime == max ? os : os + offset;
-        // 5.根据id查询blog
-        String idStr = StrUtil.join(",", ids);
-        List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
+        // 7.根据id从缓存批量查询blog
+        List<Blog> blogs = queryBlogsWithCache(ids);
 
-        for (Blog blog : blogs) {
-            // 5.1.查询blog有关的用户
-            queryBlogUser(blog);
-            // 5.2.查询blog是否被点赞
-            isBlogLiked(blog);
-        }
+        // 7.1.批量查询blog有关的用户，以及blog是否被点赞，列表只返回缩略图
+        fillBlogs(blogs);
+        fillThumbnails(blogs);
 
-        // 6.封装并返回
+        // 8.封装并返回
         ScrollResult r = new ScrollResult();
         r.setList(blogs);
         r.setOffset(os);
@@ -230,13 +885,88 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     }
 
     /**
-     * 查询和blog相关的用户
-     * @param blog
+     * 批量查询和blog相关的用户，以及当前登录用户是否点赞，
+     * 无论一页有多少条，都只需要固定的网络往返次数，互不依赖的查询并行执行
+     * @param blogs
+     */
+    private void fillBlogs(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        // 1.收集作者id，批量查询用户卡片（一次MGET，未命中的一次回源），交给线程池，和下面的Redis查询并行
+        Set<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toSet());
+        CompletableFuture<Map<Long, UserDTO>> usersFuture =
+                CompletableFuture.supplyAsync(() -> userService.queryUserCards(userIds), BLOG_FILL_EXECUTOR);
+        // 2.获取登录用户
+        UserDTO user = UserHolder.getUser();
+        String member = user == null ? null : user.getId().toString();
+        // 3.通过管道一次性查询尚未同步到数据库的点赞数、评论数增量 HMGET，
+        // 以及每篇blog是否被当前用户点赞 ZSCORE
+        String[] blogIds = blogs.stream().map(blog -> blog.getId().toString()).toArray(String[]::new);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hMGet(BLOG_LIKED_DELTA_KEY, blogIds);
+            conn.hMGet(BLOG_COMMENTS_DELTA_KEY, blogIds);
+            if (member != null) {
+                for (String blogId : blogIds) {
+                    conn.zScore(BLOG_LIKED_KEY + blogId, member);
+                }
+            }
+            return null;
+        });
+        List<?> deltas = (List<?>) results.get(0);
+        List<?> commentDeltas = (List<?>) results.get(1);
+        for (int i = 0; i < blogs.size(); i++) {
+            Blog blog = blogs.get(i);
+            // 3.1.数据库点赞数 + Redis中的增量 = 实时点赞数
+            Object delta = deltas.get(i);
+            if (delta != null) {
+                int liked = blog.getLiked() == null ? 0 : blog.getLiked();
+                blog.setLiked(Math.max(liked + Integer.parseInt(delta.toString()), 0));
+            }
+            // 3.2.评论数同理
+            Object commentDelta = commentDeltas.get(i);
+            if (commentDelta != null) {
+                int comments = blog.getComments() == null ? 0 : blog.getComments();
+                blog.setComments(Math.max(comments + Integer.parseInt(commentDelta.toString()), 0));
+            }
+            // 3.3.是否点赞
+            if (member != null) {
+                blog.setIsLike(results.get(i + 2) != null);
+            }
+        }
+        // 4.等待并行的查询，填充作者信息；线程池排队超时则放弃异步结果，在请求线程中同步查询，保证列表总有作者
+        Map<Long, UserDTO> users;
+        try {
+            users = usersFuture.get(SystemConstants.BLOG_FILL_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("查询笔记作者超时，改为同步查询, userIds: {}", userIds);
+            usersFuture.cancel(false);
+            users = userService.queryUserCards(userIds);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        for (Blog blog : blogs) {
+            UserDTO author = users.get(blog.getUserId());
+            if (author != null) {
+                blog.setName(author.getNickName());
+                blog.setIcon(author.getIcon());
+            }
+        }
+    }
+
+    /**
+     * 把图片解析为缩略图地址，列表不需要原图，不再返回images
+     * @param blogs
      */
-    private void queryBlogUser(Blog blog) {
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+    @Override
+    public void fillThumbnails(List<Blog> blogs) {
+        for (Blog blog : blogs) {
+            blog.setThumbnails(imageThumbnailer.thumbnails(blog.getImages()));
+            blog.setImages(null);
+        }
     }
 }
@@ -1,24 +1,55 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.BooleanUtil;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Follow;
 import com.hmdp.mapper.FollowMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CounterFlusher;
+import com.hmdp.utils.CursorUtils;
+import com.hmdp.utils.FollowGraphFiles;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.LongIntHashMap;
+import com.hmdp.utils.TopKHeap;
 import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.SystemConstants.FOLLOW_SET_PLACEHOLDER;
+
 /**
  * <p>
  *  服务实现类
@@ -27,41 +58,80 @@ import java.util.stream.Collectors;
  * @author
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
 
+    private static final DefaultRedisScript<Long> FOLLOW_SCRIPT;
+    private static final DefaultRedisScript<Long> FOLLOW_LOAD_SCRIPT;
+    private static final DefaultRedisScript<Long> FOLLOW_ADD_SCRIPT;
+    private static final DefaultRedisScript<List<String>> FOLLOW_COMMON_SCRIPT;
+
+    static {
+        FOLLOW_SCRIPT = new DefaultRedisScript<>();
+        FOLLOW_SCRIPT.setLocation(new ClassPathResource("follow.lua"));
+        FOLLOW_SCRIPT.setResultType(Long.class);
+        FOLLOW_LOAD_SCRIPT = new DefaultRedisScript<>();
+        FOLLOW_LOAD_SCRIPT.setLocation(new ClassPathResource("follow_load.lua"));
+        FOLLOW_LOAD_SCRIPT.setResultType(Long.class);
+        FOLLOW_ADD_SCRIPT = new DefaultRedisScript<>();
+        FOLLOW_ADD_SCRIPT.setLocation(new ClassPathResource("follow_add.lua"));
+        FOLLOW_ADD_SCRIPT.setResultType(Long.class);
+        FOLLOW_COMMON_SCRIPT = new DefaultRedisScript<>();
+        FOLLOW_COMMON_SCRIPT.setLocation(new ClassPathResource("follow_common.lua"));
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Class<List<String>> resultType = (Class) List.class;
+        FOLLOW_COMMON_SCRIPT.setResultType(resultType);
+    }
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
     private IUserService userService;
 
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+
+    @Resource
+    private CounterFlusher counterFlusher;
+
     @Override
     public Result follow(Long followUserId, Boolean isFollow) {
         // 1.获取登录用户
         Long userId = UserHolder.getUser().getId();
-        String key = "follows:" + userId;
+        if (userId.equals(followUserId)) {
+            return Result.fail("不能关注自己");
+        }
         // 1.判断到底是关注还是取关
         if (isFollow) {
-            // 2.关注，新增数据
+            // 2.关注，新增数据，唯一索引 (user_id, follow_user_id) 保证不会重复关注
             Follow follow = new Follow();
             follow.setUserId(userId);
             follow.setFollowUserId(followUserId);
-            boolean isSuccess = save(follow);
-            if (isSuccess) {
-                // 把关注的用户id，放入redis的set集合中 sadd userId followerUserId
-                stringRedisTemplate.opsForSet().add(key, String.valueOf(followUserId));
+            try {
+                save(follow);
+            } catch (DuplicateKeyException e) {
+                // 已经关注过了
+                return Result.ok();
             }
         } else {
             // 3.取关，删除 delete from tb_follow where user_id = ? and follow_user_id = ?
             boolean success = remove(new QueryWrapper<Follow>()
                     .eq("user_id", userId).eq("follow_user_id", followUserId));
-            if (success) {
-                // 把关注用户id从redis集合中移除
-                stringRedisTemplate.opsForSet().remove(key);
+            if (!success) {
+                // 本来就没有关注
+                return Result.ok();
             }
-
         }
+        // 4.一次脚本调用同时更新我的关注集合、对方的粉丝集合，双方的关注数、粉丝数，并标记我和我的粉丝的推荐需要刷新
+        stringRedisTemplate.execute(
+                FOLLOW_SCRIPT,
+                Arrays.asList(FOLLOWS_KEY + userId, FANS_KEY + followUserId, USER_FOLLOWEE_DELTA_KEY, USER_FANS_DELTA_KEY,
+                        RECOMMEND_DIRTY_KEY, RECOMMEND_KEY + userId, FANS_KEY + userId),
+                userId.toString(), followUserId.toString(), isFollow ? "1" : "0",
+                String.valueOf(SystemConstants.RECOMMEND_DIRTY_FANS_SAMPLE)
+        );
         return Result.ok();
     }
 
@@ -69,31 +139,390 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     public Result isFollow(Long followUserId) {
         // 1.获取登录用户
         Long userId = UserHolder.getUser().getId();
-        // 2.查询是否关注 select count(*) from tb_follow where user_id = ? and follow_user_id = ?
-        Integer count = query().eq("user_id", userId).eq("follow_user_id", followUserId).count();
+        // 2.查询是否关注 SISMEMBER follows:{userId} followUserId
+        loadFollows(userId);
+        Boolean isMember = stringRedisTemplate.opsForSet().isMember(FOLLOWS_KEY + userId, followUserId.toString());
         // 3.判断
-        return Result.ok(count > 0);
+        return Result.ok(BooleanUtil.isTrue(isMember));
+    }
+
+    @Override
+    public Result isFollowBatch(List<Long> followUserIds) {
+        // 1.只查询一页用户，避免一次请求在管道中堆积过多命令
+        if (followUserIds.size() > SystemConstants.MAX_PAGE_SIZE) {
+            return Result.fail("一次最多查询" + SystemConstants.MAX_PAGE_SIZE + "个用户");
+        }
+        // 1.1.获取登录用户
+        Long userId = UserHolder.getUser().getId();
+        loadFollows(userId);
+        // 2.通过管道一次性查询一页用户的关注状态
+        String key = FOLLOWS_KEY + userId;
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long followUserId : followUserIds) {
+                conn.sIsMember(key, followUserId.toString());
+            }
+            return null;
+        });
+        // 3.followUserId -> 是否关注
+        Map<Long, Boolean> status = new LinkedHashMap<>(followUserIds.size());
+        for (int i = 0; i < followUserIds.size(); i++) {
+            status.put(followUserIds.get(i), Boolean.TRUE.equals(results.get(i)));
+        }
+        return Result.ok(status);
     }
 
     @Override
     public Result followCommons(Long id) {
+        // 只返回第一页，完整列表通过滚动分页查询
+        Result result = followCommonsScroll(id, null);
+        if (!result.getSuccess()) {
+            return result;
+        }
+        return Result.ok(((ScrollResult) result.getData()).getList());
+    }
+
+    @Override
+    public Result followCommonsScroll(Long id, String cursor) {
         // 1.获取当前用户
         Long userId = UserHolder.getUser().getId();
-        String key = "follows:" + userId;
-        // 2.求交集
-        String key2 = "follows:" + id;
-        Set<String> intersect = stringRedisTemplate.opsForSet().intersect(key, key2);
-        if (intersect == null || intersect.isEmpty()) {
-            // 无交集
+        loadFollows(userId);
+        loadFollows(id);
+        // 2.解析游标：SSCAN游标，以及遍历的是哪个用户的关注集合
+        String scanCursor;
+        Long scanUserId;
+        try {
+            String[] parts = CursorUtils.decode(cursor, 2);
+            if (parts != null) {
+                // SSCAN游标是无符号64位整数，校验后再交给脚本
+                scanCursor = Long.toUnsignedString(Long.parseUnsignedLong(parts[0]));
+                scanUserId = Long.valueOf(parts[1]);
+                if (!scanUserId.equals(userId) && !scanUserId.equals(id)) {
+                    return Result.fail("无效的游标");
+                }
+            } else {
+                // 2.1.第一页，遍历较小的集合
+                scanCursor = "0";
+                List<Object> sizes = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    conn.sCard(FOLLOWS_KEY + userId);
+                    conn.sCard(FOLLOWS_KEY + id);
+                    return null;
+                });
+                scanUserId = (Long) sizes.get(0) <= (Long) sizes.get(1) ? userId : id;
+            }
+        } catch (IllegalArgumentException e) {
+            return Result.fail("无效的游标");
+        }
+        Long checkUserId = scanUserId.equals(userId) ? id : userId;
+        // 3.一次脚本调用：分块遍历较小集合，SISMEMBER较大集合，第一页同时估算总数
+        List<String> result = stringRedisTemplate.execute(
+                FOLLOW_COMMON_SCRIPT,
+                Arrays.asList(FOLLOWS_KEY + scanUserId, FOLLOWS_KEY + checkUserId),
+                scanCursor,
+                String.valueOf(SystemConstants.MAX_PAGE_SIZE),
+                String.valueOf(SystemConstants.FOLLOW_COMMON_SCAN_BUDGET),
+                cursor == null ? "1" : "0",
+                String.valueOf(SystemConstants.FOLLOW_COMMON_SAMPLE_SIZE)
+        );
+        // 4.解析结果，从用户卡片缓存查询用户
+        List<Long> ids = result.subList(2, result.size()).stream().map(Long::valueOf).collect(Collectors.toList());
+        Map<Long, UserDTO> users = userService.queryUserCards(ids);
+        ScrollResult r = new ScrollResult();
+        r.setList(ids.stream().map(users::get).filter(Objects::nonNull).collect(Collectors.toList()));
+        if (!"0".equals(result.get(0))) {
+            r.setCursor(CursorUtils.encode(result.get(0), scanUserId));
+        }
+        long total = Long.parseLong(result.get(1));
+        if (total >= 0) {
+            r.setTotal(total);
+        }
+        return Result.ok(r);
+    }
+
+    @Override
+    public Result queryRecommend() {
+        // 1.查询离线任务计算好的推荐 ZREVRANGE recommend:{userId} 0 k-1
+        Long userId = UserHolder.getUser().getId();
+        String key = RECOMMEND_KEY + userId;
+        Set<String> members = stringRedisTemplate.opsForZSet().reverseRange(key, 0, SystemConstants.RECOMMEND_TOP_K - 1);
+        if (members == null || members.isEmpty()) {
+            // 2.还没有计算过或者已经过期，交给离线任务计算
+            stringRedisTemplate.opsForSet().add(RECOMMEND_DIRTY_KEY, userId.toString());
             return Result.ok(Collections.emptyList());
         }
-        // 3.解析id集合
-        List<Long> ids = intersect.stream().map(Long::valueOf).collect(Collectors.toList());
-        // 4.查询用户
-        List<UserDTO> users = userService.listByIds(ids)
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+        // 3.从用户卡片缓存查询用户，跳过占位成员
+        List<Long> ids = members.stream()
+                .filter(member -> !FOLLOW_SET_PLACEHOLDER.equals(member))
+                .map(Long::valueOf)
                 .collect(Collectors.toList());
-        return Result.ok(users);
+        Map<Long, UserDTO> users = userService.queryUserCards(ids);
+        return Result.ok(ids.stream().map(users::get).filter(Objects::nonNull).collect(Collectors.toList()));
+    }
+
+    /**
+     * 定时刷新二度关系发生变化的用户的"可能认识的人"，
+     * 关注了我关注的人的人越多，推荐越靠前
+     */
+    @Scheduled(fixedDelay = 60 * 1000)
+    public void refreshRecommendations() {
+        List<String> failed = new ArrayList<>();
+        while (true) {
+            // 1.批量取出待刷新的用户 SPOP recommend:dirty count
+            List<String> userIds = stringRedisTemplate.opsForSet().pop(RECOMMEND_DIRTY_KEY, SystemConstants.RECOMMEND_BATCH_SIZE);
+            if (userIds == null || userIds.isEmpty()) {
+                break;
+            }
+            for (String userId : userIds) {
+                try {
+                    refreshRecommendation(Long.valueOf(userId));
+                } catch (Exception e) {
+                    log.error("刷新推荐异常, userId: {}", userId, e);
+                    failed.add(userId);
+                }
+            }
+        }
+        // 2.失败的用户下次重试
+        if (!failed.isEmpty()) {
+            stringRedisTemplate.opsForSet().add(RECOMMEND_DIRTY_KEY, failed.toArray(new String[0]));
+        }
+    }
+
+    private void refreshRecommendation(Long userId) {
+        // 1.查询我关注的人，作为排除集合，直接读成long[]，不装箱
+        // select follow_user_id from tb_follow where user_id = ?
+        long[] followees = jdbcTemplate.query(
+                "SELECT follow_user_id FROM tb_follow WHERE user_id = ?",
+                rs -> {
+                    long[] ids = new long[16];
+                    int size = 0;
+                    while (rs.next()) {
+                        if (size == ids.length) {
+                            ids = Arrays.copyOf(ids, size * 2);
+                        }
+                        ids[size++] = rs.getLong(1);
+                    }
+                    return Arrays.copyOf(ids, size);
+                },
+                userId);
+        if (followees == null) {
+            followees = new long[0];
+        }
+        LongIntHashMap followed = new LongIntHashMap(followees.length);
+        for (long followee : followees) {
+            followed.addTo(followee, 1);
+        }
+        // 2.分批查询我关注的人关注的人，逐行累加，统计每个二度用户被多少个我关注的人关注
+        // select follow_user_id from tb_follow where user_id in (...)，走唯一索引 (user_id, follow_user_id)
+        LongIntHashMap counts = new LongIntHashMap(1024);
+        int batchSize = SystemConstants.RECOMMEND_QUERY_BATCH_SIZE;
+        for (int from = 0; from < followees.length; from += batchSize) {
+            int to = Math.min(from + batchSize, followees.length);
+            Object[] batch = new Object[to - from];
+            for (int i = from; i < to; i++) {
+                batch[i - from] = followees[i];
+            }
+            jdbcTemplate.query(
+                    "SELECT follow_user_id FROM tb_follow WHERE user_id IN (" +
+                            String.join(",", Collections.nCopies(batch.length, "?")) + ")",
+                    rs -> {
+                        long candidate = rs.getLong(1);
+                        if (candidate != userId && followed.get(candidate) == 0) {
+                            counts.addTo(candidate, 1);
+                        }
+                    },
+                    batch);
+        }
+        // 3.用小顶堆取出前k个
+        TopKHeap heap = new TopKHeap(SystemConstants.RECOMMEND_TOP_K);
+        counts.forEach(heap::offer);
+        // 4.替换推荐结果，写入占位成员，没有推荐的用户也不会被反复计算
+        String key = RECOMMEND_KEY + userId;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.del(key);
+            conn.zAdd(key, -1, FOLLOW_SET_PLACEHOLDER);
+            for (int i = 0; i < heap.size(); i++) {
+                conn.zAdd(key, heap.scoreAt(i), String.valueOf(heap.idAt(i)));
+            }
+            conn.expire(key, TimeUnit.DAYS.toSeconds(RECOMMEND_TTL));
+            return null;
+        });
+    }
+
+    @Override
+    public long importFollows(Path file) throws IOException {
+        // 1.流式读取，分批导入，记录涉及的用户
+        LongIntHashMap userIds = new LongIntHashMap(1024);
+        LongIntHashMap followUserIds = new LongIntHashMap(1024);
+        long total = FollowGraphFiles.readEdges(file, SystemConstants.FOLLOW_IMPORT_BATCH_SIZE,
+                edges -> importBatch(edges, userIds, followUserIds));
+        // 2.全部导入后，一次性重新统计涉及用户的关注数、粉丝数，不依赖批量插入返回的行数
+        reconcileCounts("user_id", "followee", userIds, USER_FOLLOWEE_DELTA_KEY);
+        reconcileCounts("follow_user_id", "fans", followUserIds, USER_FANS_DELTA_KEY);
+        return total;
+    }
+
+    private void importBatch(List<long[]> edges, LongIntHashMap touchedUserIds, LongIntHashMap touchedFollowUserIds) {
+        // 1.JDBC批量插入，驱动开启 rewriteBatchedStatements 后合并为多值INSERT，已存在的关注忽略
+        jdbcTemplate.batchUpdate(
+                "INSERT IGNORE INTO tb_follow (user_id, follow_user_id) VALUES (?, ?)",
+                edges, edges.size(),
+                (ps, edge) -> {
+                    ps.setLong(1, edge[0]);
+                    ps.setLong(2, edge[1]);
+                });
+        // 2.按集合分组，每个集合一次脚本调用：已加载的集合直接添加，未加载的与follow.lua一样记录待重放的变更
+        Map<String, List<String>> members = new LinkedHashMap<>();
+        for (long[] edge : edges) {
+            members.computeIfAbsent(FOLLOWS_KEY + edge[0], k -> new ArrayList<>()).add(String.valueOf(edge[1]));
+            members.computeIfAbsent(FANS_KEY + edge[1], k -> new ArrayList<>()).add(String.valueOf(edge[0]));
+        }
+        members.forEach((key, values) -> stringRedisTemplate.execute(
+                FOLLOW_ADD_SCRIPT, Collections.singletonList(key), values.toArray()));
+        // 2.1.关注的人变了，等待离线任务刷新推荐
+        Set<String> userIds = edges.stream().map(edge -> String.valueOf(edge[0])).collect(Collectors.toSet());
+        stringRedisTemplate.opsForSet().add(RECOMMEND_DIRTY_KEY, userIds.toArray(new String[0]));
+        // 3.记录涉及的用户，全部导入后统一重新统计计数
+        for (long[] edge : edges) {
+            touchedUserIds.addTo(edge[0], 1);
+            touchedFollowUserIds.addTo(edge[1], 1);
+        }
+    }
+
+    /**
+     * 分批重新统计导入涉及的所有用户的计数
+     */
+    private void reconcileCounts(String groupColumn, String countColumn, LongIntHashMap userIds, String deltaKey) {
+        Set<Long> batch = new HashSet<>(SystemConstants.FLUSH_BATCH_SIZE);
+        userIds.forEach((userId, edges) -> {
+            batch.add(userId);
+            if (batch.size() >= SystemConstants.FLUSH_BATCH_SIZE) {
+                reconcileCounts(groupColumn, countColumn, batch, deltaKey);
+                batch.clear();
+            }
+        });
+        if (!batch.isEmpty()) {
+            reconcileCounts(groupColumn, countColumn, batch, deltaKey);
+        }
+    }
+
+    /**
+     * 按数据库重新统计一批用户的计数，写入tb_user_info，与计数同步持有同一把锁，尚未同步的增量保留在Redis中
+     * @param groupColumn 分组的列，user_id 统计关注数，follow_user_id 统计粉丝数
+     * @param countColumn tb_user_info中的计数列
+     * @param userIds
+     * @param deltaKey 增量hash的key
+     */
+    private void reconcileCounts(String groupColumn, String countColumn, Set<Long> userIds, String deltaKey) {
+        counterFlusher.recount(deltaKey, userIds, ids -> {
+            // select ?, count(*) from tb_follow where ? in (...) group by ?
+            Map<Long, Long> counts = new HashMap<>(ids.size());
+            listMaps(new QueryWrapper<Follow>()
+                    .select(groupColumn + " AS uid", "COUNT(*) AS cnt")
+                    .in(groupColumn, ids)
+                    .groupBy(groupColumn))
+                    .forEach(row -> counts.put(Long.valueOf(row.get("uid").toString()), Long.valueOf(row.get("cnt").toString())));
+            return counts;
+        }, counts -> jdbcTemplate.batchUpdate(
+                "INSERT INTO tb_user_info (user_id, " + countColumn + ") VALUES (?, ?) " +
+                        "ON DUPLICATE KEY UPDATE " + countColumn + " = VALUES(" + countColumn + ")",
+                new ArrayList<>(counts.entrySet()), counts.size(),
+                (ps, entry) -> {
+                    ps.setLong(1, entry.getKey());
+                    ps.setLong(2, entry.getValue());
+                }));
+    }
+
+    /**
+     * 计数改为增量维护之前已有的关注关系没有计入tb_user_info，大V判断又依赖粉丝数，
+     * 按tb_follow分批重新统计一遍。进度保存在Redis中，重启后从断点继续，全部完成后不再执行
+     */
+    @Scheduled(fixedDelay = 60 * 1000)
+    public void backfillFollowCounts() {
+        backfillFollowCounts("follow_user_id", "fans", USER_FANS_DELTA_KEY);
+        backfillFollowCounts("user_id", "followee", USER_FOLLOWEE_DELTA_KEY);
+    }
+
+    private void backfillFollowCounts(String groupColumn, String countColumn, String deltaKey) {
+        // 1.读取进度：上一批最后的用户id，done表示已完成
+        Object progress = stringRedisTemplate.opsForHash().get(USER_COUNTS_BACKFILL_KEY, countColumn);
+        if ("done".equals(progress)) {
+            return;
+        }
+        long lastId = progress == null ? 0 : Long.parseLong(progress.toString());
+        while (true) {
+            // 2.下一批用户 select distinct ? from tb_follow where ? > ? order by ? limit ?，走索引
+            List<Long> userIds = listObjs(new QueryWrapper<Follow>()
+                    .select("DISTINCT " + groupColumn)
+                    .gt(groupColumn, lastId)
+                    .orderByAsc(groupColumn)
+                    .last("LIMIT " + SystemConstants.FLUSH_BATCH_SIZE), o -> Long.valueOf(o.toString()));
+            if (userIds.isEmpty()) {
+                stringRedisTemplate.opsForHash().put(USER_COUNTS_BACKFILL_KEY, countColumn, "done");
+                return;
+            }
+            // 3.重新统计并保存进度
+            reconcileCounts(groupColumn, countColumn, new HashSet<>(userIds), deltaKey);
+            lastId = userIds.get(userIds.size() - 1);
+            stringRedisTemplate.opsForHash().put(USER_COUNTS_BACKFILL_KEY, countColumn, String.valueOf(lastId));
+        }
+    }
+
+    @Override
+    public long exportFollowGraph(Path file) throws IOException {
+        // 快照格式见 FollowGraphFiles.SnapshotWriter，按 (user_id, follow_user_id) 升序写入
+        try (FollowGraphFiles.SnapshotWriter writer =
+                     new FollowGraphFiles.SnapshotWriter(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            long lastUserId = 0;
+            long lastFollowUserId = 0;
+            while (true) {
+                // 1.按唯一索引 (user_id, follow_user_id) 游标分页，每页的代价相同
+                List<long[]> page = jdbcTemplate.query(
+                        "SELECT user_id, follow_user_id FROM tb_follow " +
+                                "WHERE (user_id, follow_user_id) > (?, ?) " +
+                                "ORDER BY user_id, follow_user_id LIMIT ?",
+                        (rs, i) -> new long[]{rs.getLong(1), rs.getLong(2)},
+                        lastUserId, lastFollowUserId, SystemConstants.FOLLOW_EXPORT_PAGE_SIZE);
+                // 2.写入快照，换用户时写出上一个用户的关注列表
+                for (long[] edge : page) {
+                    writer.write(edge[0], edge[1]);
+                }
+                if (page.size() < SystemConstants.FOLLOW_EXPORT_PAGE_SIZE) {
+                    return writer.getEdges();
+                }
+                long[] last = page.get(page.size() - 1);
+                lastUserId = last[0];
+                lastFollowUserId = last[1];
+            }
+        }
+    }
+
+    @Override
+    public void loadFollows(Long userId) {
+        // select follow_user_id from tb_follow where user_id = ?，走唯一索引 (user_id, follow_user_id)
+        loadSet(FOLLOWS_KEY + userId, () -> listObjs(
+                new QueryWrapper<Follow>().select("follow_user_id").eq("user_id", userId)));
+    }
+
+    @Override
+    public void loadFans(Long userId) {
+        // select user_id from tb_follow where follow_user_id = ?，走索引 (follow_user_id, id)
+        loadSet(FANS_KEY + userId, () -> listObjs(
+                new QueryWrapper<Follow>().select("user_id").eq("follow_user_id", userId)));
+    }
+
+    /**
+     * 集合不存在时从数据库重建，集合中带有占位成员，空集合也不会重复重建。
+     * 重建期间的关注变更记录在 {key}:pending 中，由脚本在写入时重放，返回后集合一定存在
+     * @param key
+     * @param loader 从数据库查询全部成员
+     */
+    private void loadSet(String key, Supplier<List<Object>> loader) {
+        if (BooleanUtil.isTrue(stringRedisTemplate.hasKey(key))) {
+            return;
+        }
+        Object[] members = loader.get().stream().map(Object::toString).toArray();
+        stringRedisTemplate.execute(FOLLOW_LOAD_SCRIPT, Collections.singletonList(key), members);
     }
 }
@@ -12,8 +12,10 @@ import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.ImageThumbnailer;
 import com.hmdp.utils.RedisData;
 import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
@@ -50,7 +52,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     /**
      * 线程池
      */
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private static final ExecutorService CACHE_REBUILD_EXECUTOR = UserHolder.wrap(Executors.newFixedThreadPool(10));
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
@@ -58,6 +60,9 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private ImageThumbnailer imageThumbnailer;
+
 
     /**
      * Adding a Redis cache: Queries the store cache based on its id.
@@ -312,6 +317,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             Page<Shop> page = query()
                     .eq("type_id", typeId)
                     .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
+            fillThumbnails(page.getRecords());
             // 返回数据
             return Result.ok(page.getRecords());
         }
@@ -356,7 +362,20 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         for (Shop shop : shops) {
             shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
         }
+        fillThumbnails(shops);
         // 6.返回
         return Result.ok(shops);
     }
+
+    /**
+     * 把图片解析为缩略图地址，列表不需要原图，不再返回images
+     * @param shops
+     */
+    @Override
+    public void fillThumbnails(List<Shop> shops) {
+        for (Shop shop : shops) {
+            shop.setThumbnails(imageThumbnailer.thumbnails(shop.getImages()));
+            shop.setImages(null);
+        }
+    }
 }
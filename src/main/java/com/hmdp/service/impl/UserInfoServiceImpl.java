@@ -1,11 +1,23 @@
 package com.hmdp.service.impl;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.mapper.UserInfoMapper;
 import com.hmdp.service.IUserInfoService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CounterFlusher;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.USER_FANS_DELTA_KEY;
+import static com.hmdp.utils.RedisConstants.USER_FOLLOWEE_DELTA_KEY;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +29,71 @@ import org.springframework.stereotype.Service;
 @Service
 public class UserInfoServiceImpl extends ServiceImpl<UserInfoMapper, UserInfo> implements IUserInfoService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private CounterFlusher counterFlusher;
+
+    @Override
+    public Result queryUserInfo(Long userId) {
+        // 1.查询详情，主键查询
+        UserInfo info = getById(userId);
+        // 2.通过管道查询尚未同步到数据库的粉丝数、关注数增量
+        String member = userId.toString();
+        List<Object> deltas = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hGet(USER_FANS_DELTA_KEY, member);
+            conn.hGet(USER_FOLLOWEE_DELTA_KEY, member);
+            return null;
+        });
+        Object fansDelta = deltas.get(0);
+        Object followeeDelta = deltas.get(1);
+        if (info == null) {
+            if (fansDelta == null && followeeDelta == null) {
+                // 没有详情，应该是第一次查看详情
+                return Result.ok();
+            }
+            // 详情还没有同步到数据库
+            info = new UserInfo().setUserId(userId).setFans(0).setFollowee(0);
+        }
+        // 3.数据库计数 + Redis中的增量 = 实时计数
+        info.setFans(plus(info.getFans(), fansDelta));
+        info.setFollowee(plus(info.getFollowee(), followeeDelta));
+        info.setCreateTime(null);
+        info.setUpdateTime(null);
+        return Result.ok(info);
+    }
+
+    @Override
+    public int queryFans(Long userId) {
+        UserInfo info = query().select("user_id", "fans").eq("user_id", userId).one();
+        Object delta = stringRedisTemplate.opsForHash().get(USER_FANS_DELTA_KEY, userId.toString());
+        return plus(info == null ? null : info.getFans(), delta);
+    }
+
+    /**
+     * 定时把Redis中累计的粉丝数、关注数增量批量同步到数据库，
+     * 没有详情的用户先补齐一行，再按 CASE 批量累加
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void flushFollowCounts() {
+        // 补齐是幂等的，累加失败时整批增量加回Redis重试，不需要事务
+        counterFlusher.flush(USER_FANS_DELTA_KEY, batch -> {
+            getBaseMapper().insertIgnoreBatch(batch.keySet());
+            getBaseMapper().incrFansBatch(batch);
+        });
+        counterFlusher.flush(USER_FOLLOWEE_DELTA_KEY, batch -> {
+            getBaseMapper().insertIgnoreBatch(batch.keySet());
+            getBaseMapper().incrFolloweeBatch(batch);
+        });
+    }
+
+    private static int plus(Integer count, Object delta) {
+        int value = count == null ? 0 : count;
+        if (delta != null) {
+            value += Integer.parseInt(delta.toString());
+        }
+        return Math.max(value, 0);
+    }
 }
@@ -1,33 +1,47 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
+import com.hmdp.dto.LoginTokenDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.LoginSessionCache;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.SignedTokenManager;
+import com.hmdp.utils.UserHashCodec;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
@@ -47,6 +61,15 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private SignedTokenManager signedTokenManager;
+
+    @Resource
+    private LoginSessionCache loginSessionCache;
+
     @Override
     public Result sendCode(String phone, HttpSession session) {
         // 1 校验手机号
@@ -73,7 +96,7 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     }
 
     @Override
-    public Result login(LoginFormDTO loginForm, HttpSession session) {
+    public Result login(LoginFormDTO loginForm, HttpSession session, HttpServletRequest request) {
         // 1 校验手机号
         String phone = loginForm.getPhone();
         boolean phoneInvalid = RegexUtils.isPhoneInvalid(phone);
@@ -88,29 +111,44 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
             return Result.fail("验证码错误");
         }
 
-        // 4 一致，根据手机号查询
-        User user = query().eq("phone", phone).one();
-        // 5 判断用户是否存在
+        // 4 一致，一条SQL按手机号注册或取出已有用户的id，不需要先查询
+        Long userId = upsertUserWithPhone(phone);
+        // 5 查询用户卡片，优先命中缓存
+        UserDTO user = userId == null ? null : queryUserCards(Collections.singletonList(userId)).get(userId);
         if (user == null) {
-            // 6 不存在，创建新用户并保存
-            user = creatUserWithPhone(phone);
+            log.error("登录时注册或查询用户失败, phone: {}", phone);
+            return Result.fail("登录失败，请稍后重试");
+        }
+        // 5.1 清理会话索引中已经过期的记录，索引的有效期随每次登录延长，过期的会话不会自己消失
+        pruneSessions(user.getId());
+
+        // 6.1 启用签名令牌时，签发访问令牌和刷新令牌，不在redis中保存会话
+        if (signedTokenManager.isEnabled()) {
+            LoginTokenDTO tokens = signedTokenManager.issue(user);
+            saveSession(user.getId(), tokens.getRefreshToken(), deviceInfo(request), null);
+            return Result.ok(tokens);
         }
 
         // 7 保存用户信息到 redis 中
         // 7.1 随机生成token
         String token = UUID.randomUUID().toString(true);
 
-        // 7.2 将User对象转为Hash
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
-        // 确保存到 userMap 中的 key 和 value 全为 string
-        Map<String, Object> userMap = BeanUtil.beanToMap(userDTO, new HashMap<>(),
-                CopyOptions.create()
-                        .setIgnoreNullValue(true)
-                        .setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString()));
+        // 7.2 将User对象转为Hash，key 和 value 全为 string
+        Map<String, String> userMap = UserHashCodec.encode(user);
 
-        // 7.3 存储，设置过期时长
-        stringRedisTemplate.opsForHash().putAll(LOGIN_USER_KEY + token, userMap);
-        stringRedisTemplate.expire(LOGIN_USER_KEY + token, LOGIN_USER_TTL, TimeUnit.MINUTES);
+        // 7.3 在一个管道中用事务存储会话、登记到用户的会话索引，并设置过期时长，不会留下没有过期时间的会话
+        String sessionKey = LOGIN_SESSIONS_KEY + user.getId();
+        String device = deviceInfo(request);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.multi();
+            conn.hMSet(LOGIN_USER_KEY + token, userMap);
+            conn.expire(LOGIN_USER_KEY + token, TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL));
+            conn.hSet(sessionKey, token, device);
+            conn.expire(sessionKey, TimeUnit.DAYS.toSeconds(LOGIN_REFRESH_TTL));
+            conn.exec();
+            return null;
+        });
 
         // 8 返回token
         return Result.ok(token);
@@ -177,13 +215,209 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         return Result.ok(count);
     }
 
-    private User creatUserWithPhone(String phone) {
-        // 1 创建用户
+    /**
+     * 批量查询用户卡片，一次MGET命中缓存，未命中的一次listByIds回源
+     * @param ids
+     * @return
+     */
+    @Override
+    public Map<Long, UserDTO> queryUserCards(Collection<Long> ids) {
+        return cacheClient.queryBatchWithPassThrough(
+                CACHE_USER_KEY, ids, UserDTO.class,
+                missIds -> listByIds(missIds).stream()
+                        .collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class))),
+                CACHE_USER_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 修改当前用户的昵称、头像，并删除用户卡片缓存
+     * @param userDTO
+     * @return
+     */
+    @Override
+    @Transactional
+    public Result updateMe(UserDTO userDTO) {
+        Long userId = UserHolder.getUser().getId();
+        // 1.更新数据库
+        User user = new User();
+        user.setId(userId);
+        user.setNickName(userDTO.getNickName());
+        user.setIcon(userDTO.getIcon());
+        updateById(user);
+        // 2.删除用户卡片缓存，笔记缓存中不包含作者信息，不受影响
+        stringRedisTemplate.delete(CACHE_USER_KEY + userId);
+        return Result.ok();
+    }
+
+    /**
+     * 用刷新令牌换取新的令牌，刷新令牌只能使用一次
+     * @param refreshToken
+     * @return
+     */
+    @Override
+    public Result refreshToken(String refreshToken) {
+        if (!signedTokenManager.isEnabled()) {
+            return Result.fail("未启用签名令牌");
+        }
+        // 1.取出并删除刷新令牌
+        String userId = stringRedisTemplate.opsForValue().getAndDelete(LOGIN_REFRESH_KEY + refreshToken);
+        if (userId == null) {
+            return Result.fail("登录已过期，请重新登录");
+        }
+        // 2.查询用户最新的信息，昵称、头像的修改在刷新后生效
+        User user = getById(Long.valueOf(userId));
+        if (user == null) {
+            return Result.fail("用户不存在");
+        }
+        // 3.签发新的令牌，会话索引中用新的刷新令牌替换旧的，设备信息不变
+        LoginTokenDTO tokens = signedTokenManager.issue(UserHashCodec.toDTO(user));
+        Object device = stringRedisTemplate.opsForHash().get(LOGIN_SESSIONS_KEY + userId, refreshToken);
+        saveSession(user.getId(), tokens.getRefreshToken(),
+                device == null ? JSONUtil.createObj().toString() : device.toString(), refreshToken);
+        return Result.ok(tokens);
+    }
+
+    /**
+     * 退出当前设备的登录
+     * @param token 当前请求的token
+     * @param refreshToken 签名令牌模式下的刷新令牌，必须是当前用户的刷新令牌
+     * @return
+     */
+    @Override
+    public Result logout(String token, String refreshToken) {
+        Long userId = UserHolder.getUser().getId();
+        String sessionKey = LOGIN_SESSIONS_KEY + userId;
+        // 1.签名令牌无法删除，加入吊销列表；会话索引中记录的是刷新令牌，只能删除自己的刷新令牌
+        String field = token;
+        if (SignedTokenManager.isSignedToken(token)) {
+            if (StrUtil.isBlank(refreshToken)) {
+                return Result.fail("缺少刷新令牌");
+            }
+            if (!stringRedisTemplate.opsForHash().hasKey(sessionKey, refreshToken)) {
+                return Result.fail("无效的刷新令牌");
+            }
+            signedTokenManager.revoke(token);
+            field = refreshToken;
+        }
+        String sessionField = field;
+        // 2.在一个管道中删除会话、会话索引中的记录，并通知所有实例删除本地缓存
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.del(LOGIN_USER_KEY + token, LOGIN_REFRESH_KEY + sessionField);
+            conn.hDel(sessionKey, sessionField);
+            conn.publish(LOGIN_INVALIDATE_CHANNEL, token);
+            return null;
+        });
+        loginSessionCache.invalidate(token);
+        return Result.ok();
+    }
+
+    /**
+     * 退出所有设备的登录
+     * @param token 当前请求的token
+     * @return
+     */
+    @Override
+    public Result logoutAll(String token) {
+        Long userId = UserHolder.getUser().getId();
+        String sessionKey = LOGIN_SESSIONS_KEY + userId;
+        // 1.查询会话索引，不需要扫描所有的 login:token:*
+        Set<String> fields = stringRedisTemplate.<String, String>opsForHash().keys(sessionKey);
+        if (SignedTokenManager.isSignedToken(token)) {
+            // 其他设备的签名令牌在有效期（hmdp.login.access-ttl）内仍然可用，刷新令牌删除后无法续期
+            signedTokenManager.revoke(token);
+        }
+        if (fields.isEmpty()) {
+            return Result.ok();
+        }
+        // 2.在一个管道中删除所有会话和刷新令牌，只删除查到的记录，不影响同时发生的新登录，并通知所有实例
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String field : fields) {
+                conn.del(LOGIN_USER_KEY + field, LOGIN_REFRESH_KEY + field);
+            }
+            conn.hDel(sessionKey, fields.toArray(new String[0]));
+            conn.publish(LOGIN_INVALIDATE_CHANNEL, String.join(",", fields));
+            return null;
+        });
+        fields.forEach(loginSessionCache::invalidate);
+        return Result.ok();
+    }
+
+    /**
+     * 登记到用户的会话索引
+     * @param userId
+     * @param field 会话的token，签名令牌模式下是刷新令牌
+     * @param device 设备信息
+     * @param oldField 需要替换掉的旧记录，可为空
+     */
+    private void saveSession(Long userId, String field, String device, String oldField) {
+        String sessionKey = LOGIN_SESSIONS_KEY + userId;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            if (oldField != null) {
+                conn.hDel(sessionKey, oldField);
+            }
+            conn.hSet(sessionKey, field, device);
+            conn.expire(sessionKey, TimeUnit.DAYS.toSeconds(LOGIN_REFRESH_TTL));
+            return null;
+        });
+    }
+
+    /**
+     * 删除会话索引中已经过期的记录：token模式的会话和签名令牌模式的刷新令牌都已不存在
+     * @param userId
+     */
+    private void pruneSessions(Long userId) {
+        String sessionKey = LOGIN_SESSIONS_KEY + userId;
+        List<String> fields = new ArrayList<>(stringRedisTemplate.<String, String>opsForHash().keys(sessionKey));
+        if (fields.isEmpty()) {
+            return;
+        }
+        // 1.通过管道查询每条记录对应的会话或刷新令牌是否还在
+        List<Object> counts = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String field : fields) {
+                conn.exists(LOGIN_USER_KEY + field, LOGIN_REFRESH_KEY + field);
+            }
+            return null;
+        });
+        // 2.删除都不存在的记录
+        List<Object> expired = new ArrayList<>();
+        for (int i = 0; i < fields.size(); i++) {
+            if (Long.valueOf(0).equals(counts.get(i))) {
+                expired.add(fields.get(i));
+            }
+        }
+        if (!expired.isEmpty()) {
+            stringRedisTemplate.opsForHash().delete(sessionKey, expired.toArray());
+        }
+    }
+
+    /**
+     * 设备信息：User-Agent、IP和登录时间
+     * @param request
+     * @return
+     */
+    private static String deviceInfo(HttpServletRequest request) {
+        return JSONUtil.createObj()
+                .set("agent", StrUtil.maxLength(StrUtil.nullToEmpty(request.getHeader("User-Agent")), 200))
+                .set("ip", request.getRemoteAddr())
+                .set("loginTime", System.currentTimeMillis())
+                .toString();
+    }
+
+    /**
+     * 按手机号注册用户，手机号已存在时返回已有用户的id，
+     * 依赖手机号的唯一索引，并发的首次登录只有一个能插入成功，其余的取回同一个id
+     * @param phone
+     * @return 用户id
+     */
+    private Long upsertUserWithPhone(String phone) {
         User user = new User();
         user.setPhone(phone);
         user.setNickName(USER_NICK_NAME_PREFIX + RandomUtil.randomString(10));
-        // 2 保存用户
-        save(user);
-        return user;
+        getBaseMapper().upsertByPhone(user);
+        return user.getId();
     }
 }
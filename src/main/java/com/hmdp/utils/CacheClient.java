@@ -5,17 +5,22 @@ import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
+import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
-import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_CACHE_KEY;
 
 @Slf4j
 @Component
@@ -23,7 +28,15 @@ public class CacheClient {
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+
+    static {
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final ExecutorService CACHE_REBUILD_EXECUTOR = UserHolder.wrap(Executors.newFixedThreadPool(10));
 
     public CacheClient(StringRedisTemplate stringRedisTemplate) {
         this.stringRedisTemplate = stringRedisTemplate;
@@ -101,6 +114,70 @@ public class CacheClient {
         return r;
     }
 
+    /**
+     * 根据一批id批量查询缓存（一次MGET），并反序列化为指定类型，
+     * 未命中的id一次性回源数据库，再通过管道批量写回缓存，
+     * 数据库中不存在的id写入空值解决 缓存穿透 问题
+     * @param keyPrefix
+     * @param ids
+     * @param type
+     * @param dbFallback 根据未命中的id批量查询数据库，返回 id -> 数据
+     * @param time
+     * @param unit
+     * @param <R>
+     * @param <ID>
+     * @return id -> 数据，不存在的id不会出现在结果中
+     */
+    public <R, ID> Map<ID, R> queryBatchWithPassThrough(
+            String keyPrefix, Collection<ID> ids, Class<R> type, Function<List<ID>, Map<ID, R>> dbFallback,
+            Long time, TimeUnit unit) {
+        Map<ID, R> result = new HashMap<>(ids.size());
+        if (ids.isEmpty()) {
+            return result;
+        }
+        // 1.去重后一次MGET查询所有缓存
+        List<ID> idList = new ArrayList<>(new LinkedHashSet<>(ids));
+        List<String> keys = new ArrayList<>(idList.size());
+        for (ID id : idList) {
+            keys.add(keyPrefix + id);
+        }
+        List<String> jsons = stringRedisTemplate.opsForValue().multiGet(keys);
+        // 2.区分命中与未命中
+        List<ID> missIds = new ArrayList<>();
+        for (int i = 0; i < idList.size(); i++) {
+            String json = jsons == null ? null : jsons.get(i);
+            if (StrUtil.isNotBlank(json)) {
+                result.put(idList.get(i), JSONUtil.toBean(json, type));
+            } else if (json == null) {
+                missIds.add(idList.get(i));
+            }
+            // 命中空值，说明数据库中也不存在，直接跳过
+        }
+        if (missIds.isEmpty()) {
+            return result;
+        }
+        // 3.未命中的id一次性回源数据库
+        Map<ID, R> dbMap = dbFallback.apply(missIds);
+        Map<ID, R> found = dbMap == null ? Collections.emptyMap() : dbMap;
+        // 4.通过管道批量写回缓存，不存在的写入空值
+        long seconds = unit.toSeconds(time);
+        long nullSeconds = TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (ID id : missIds) {
+                R r = found.get(id);
+                if (r == null) {
+                    conn.setEx(keyPrefix + id, nullSeconds, "");
+                } else {
+                    conn.setEx(keyPrefix + id, seconds, JSONUtil.toJsonStr(r));
+                }
+            }
+            return null;
+        });
+        result.putAll(found);
+        return result;
+    }
+
     /**
      * 根据指定的key查询缓存，并反序列化为指定类型，
      * 需要利用逻辑过期解决 缓存击穿 问题
@@ -136,8 +213,9 @@ public class CacheClient {
         // 5.2.已过期，需要缓存重建
         // 6.缓存重建
         // 6.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
+        String lockKey = LOCK_CACHE_KEY + key;
+        String lockValue = UUID.randomUUID().toString();
+        boolean isLock = tryLock(lockKey, lockValue);
         // 6.2.判断是否获取锁成功
         if (isLock){
             // 6.3.成功，开启独立线程，实现缓存重建
@@ -151,7 +229,7 @@ public class CacheClient {
                     throw new RuntimeException(e);
                 }finally {
                     // 释放锁
-                    unlock(lockKey);
+                    unlock(lockKey, lockValue);
                 }
             });
         }
@@ -159,62 +237,81 @@ public class CacheClient {
         return r;
     }
 
+    /**
+     * 根据指定的key查询缓存，并反序列化为指定类型，
+     * 缓存空值解决 缓存穿透，互斥锁解决 缓存击穿 问题
+     * @param keyPrefix
+     * @param id
+     * @param type
+     * @param dbFallback
+     * @param time
+     * @param unit
+     * @param <R>
+     * @param <ID>
+     * @return
+     */
     public <R, ID> R queryWithMutex(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
-        // 1.从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        // 2.判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(shopJson, type);
-        }
-        // 判断命中的是否是空值
-        if (shopJson != null) {
-            // 返回一个错误信息
-            return null;
-        }
-
-        // 4.实现缓存重建
-        // 4.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        R r = null;
-        try {
-            boolean isLock = tryLock(lockKey);
-            // 4.2.判断是否获取成功
-            if (!isLock) {
-                // 4.3.获取锁失败，休眠并重试
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
+        String lockKey = LOCK_CACHE_KEY + key;
+        // 锁的值使用本次调用的唯一标识，只释放自己持有的锁
+        String lockValue = UUID.randomUUID().toString();
+        for (int retry = 0; ; retry++) {
+            // 1.从redis查询缓存，命中（包括空值）直接返回
+            String json = stringRedisTemplate.opsForValue().get(key);
+            if (json != null) {
+                return StrUtil.isBlank(json) ? null : JSONUtil.toBean(json, type);
             }
-            // 4.4.获取锁成功，根据id查询数据库
-            r = dbFallback.apply(id);
-            // 5.不存在，返回错误
-            if (r == null) {
-                // 将空值写入redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 返回错误信息
-                return null;
+            // 2.重试次数用尽，直接查询数据库，不写缓存，避免请求无限等待
+            if (retry >= SystemConstants.CACHE_MUTEX_MAX_RETRIES) {
+                log.warn("等待缓存重建超时, key: {}", key);
+                return dbFallback.apply(id);
             }
-            // 6.存在，写入redis
-            this.set(key, r, time, unit);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }finally {
-            // 7.释放锁
-            unlock(lockKey);
+            // 3.获取互斥锁，成功则重建缓存
+            if (tryLock(lockKey, lockValue)) {
+                try {
+                    return rebuildWithMutex(key, id, type, dbFallback, time, unit);
+                } finally {
+                    unlock(lockKey, lockValue);
+                }
+            }
+            // 4.获取锁失败，休眠后重试
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private <R, ID> R rebuildWithMutex(
+            String key, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        // 1.再次查询缓存，可能在获取锁之前已被其他线程重建
+        String json = stringRedisTemplate.opsForValue().get(key);
+        if (json != null) {
+            return StrUtil.isBlank(json) ? null : JSONUtil.toBean(json, type);
         }
-        // 8.返回
+        // 2.根据id查询数据库
+        R r = dbFallback.apply(id);
+        if (r == null) {
+            // 3.不存在，将空值写入redis
+            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            return null;
+        }
+        // 4.存在，写入redis
+        this.set(key, r, time, unit);
         return r;
     }
 
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
+    private boolean tryLock(String key, String value) {
+        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, value, 10, TimeUnit.SECONDS);
         return BooleanUtil.isTrue(flag);
     }
 
-    private void unlock(String key) {
-        stringRedisTemplate.delete(key);
+    private void unlock(String key, String value) {
+        // 判断锁的值与删除在一个脚本中完成，锁超时被其他线程获取后不会被误删
+        stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(key), value);
     }
 
 }
@@ -0,0 +1,11 @@
+package com.hmdp.utils;
+
+public interface CommentFilter {
+
+    /**
+     * 审核评论内容，所有的审核器都通过才能正常展示
+     * @param content 评论内容
+     * @return true代表通过，false代表不通过，评论会被标记为禁止查看
+     */
+    boolean accept(String content);
+}
@@ -0,0 +1,137 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.LOCK_FLUSH_KEY;
+
+/**
+ * 计数器的写回：计数变化先累加在Redis的增量hash中（id -> 增量），
+ * 由定时任务原子地取出并清空，再分批写入数据库，写入失败时把增量加回Redis。
+ * 同步与重新统计持有同一把锁，不会有取出了但还没写入数据库的增量
+ */
+@Slf4j
+@Component
+public class CounterFlusher {
+
+    private static final DefaultRedisScript<List<String>> HASH_DRAIN_SCRIPT;
+
+    static {
+        HASH_DRAIN_SCRIPT = new DefaultRedisScript<>();
+        HASH_DRAIN_SCRIPT.setLocation(new ClassPathResource("hash_drain.lua"));
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Class<List<String>> resultType = (Class) List.class;
+        HASH_DRAIN_SCRIPT.setResultType(resultType);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedissonClient redissonClient;
+
+    public CounterFlusher(StringRedisTemplate stringRedisTemplate, RedissonClient redissonClient) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redissonClient = redissonClient;
+    }
+
+    /**
+     * 把增量hash同步到数据库
+     * @param deltaKey 增量hash的key
+     * @param writer 把一批增量写入数据库，id -> 增量，每批不超过 FLUSH_BATCH_SIZE
+     */
+    public void flush(String deltaKey, Consumer<Map<Long, Long>> writer) {
+        // 其它实例正在同步或正在重新统计，等下次定时任务
+        RLock lock = redissonClient.getLock(LOCK_FLUSH_KEY + deltaKey);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            drain(deltaKey, writer);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按数据库重新统计一批计数并覆盖写入，不修改增量hash。
+     * 增量hash中的增量对应的变更已经写入数据库，包含在统计结果中，写入时先减去，由之后的同步再加回
+     * @param deltaKey 增量hash的key
+     * @param ids
+     * @param counter 从数据库统计计数，id -> 计数，没有返回的id计数为0
+     * @param writer 把计数覆盖写入数据库，id -> 计数
+     */
+    public void recount(String deltaKey, Collection<Long> ids,
+                        Function<List<Long>, Map<Long, Long>> counter, Consumer<Map<Long, Long>> writer) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        RLock lock = redissonClient.getLock(LOCK_FLUSH_KEY + deltaKey);
+        lock.lock();
+        try {
+            // 1.先查询尚未同步的增量，再统计，统计结果一定包含这些增量
+            List<Long> idList = new ArrayList<>(ids);
+            List<Object> pending = stringRedisTemplate.opsForHash().multiGet(deltaKey,
+                    idList.stream().map(String::valueOf).collect(Collectors.toList()));
+            Map<Long, Long> counts = counter.apply(idList);
+            // 2.统计结果减去尚未同步的增量后写入数据库
+            Map<Long, Long> values = new HashMap<>(idList.size());
+            for (int i = 0; i < idList.size(); i++) {
+                Object delta = pending.get(i);
+                long value = counts.getOrDefault(idList.get(i), 0L) - (delta == null ? 0 : Long.parseLong(delta.toString()));
+                values.put(idList.get(i), Math.max(value, 0));
+            }
+            writer.accept(values);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drain(String deltaKey, Consumer<Map<Long, Long>> writer) {
+        // 1.原子地取出并清空累计的增量
+        List<String> data = stringRedisTemplate.execute(HASH_DRAIN_SCRIPT, Collections.singletonList(deltaKey));
+        if (data == null || data.isEmpty()) {
+            return;
+        }
+        Map<Long, Long> deltas = new HashMap<>(data.size());
+        for (int i = 0; i + 1 < data.size(); i += 2) {
+            long delta = Long.parseLong(data.get(i + 1));
+            if (delta != 0) {
+                deltas.put(Long.valueOf(data.get(i)), delta);
+            }
+        }
+        // 2.分批写入数据库
+        List<Long> ids = new ArrayList<>(deltas.keySet());
+        for (int from = 0; from < ids.size(); from += SystemConstants.FLUSH_BATCH_SIZE) {
+            Map<Long, Long> batch = new HashMap<>(SystemConstants.FLUSH_BATCH_SIZE);
+            for (Long id : ids.subList(from, Math.min(from + SystemConstants.FLUSH_BATCH_SIZE, ids.size()))) {
+                batch.put(id, deltas.get(id));
+            }
+            try {
+                writer.accept(batch);
+            } catch (Exception e) {
+                log.error("同步计数异常, key: {}", deltaKey, e);
+                // 3.同步失败，把增量加回Redis，下次重试
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    batch.forEach((id, delta) -> conn.hIncrBy(deltaKey, id.toString(), delta));
+                    return null;
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.util.StrUtil;
+
+/**
+ * 滚动分页的游标编解码，游标对前端不透明，前端只需要原样带回
+ * @author
+ */
+public class CursorUtils {
+
+    private static final String SEPARATOR = ":";
+
+    /**
+     * 把上一页最后一条记录的排序字段编码为游标
+     * @param parts 排序字段，如 (create_time, id)
+     * @return 游标
+     */
+    public static String encode(Object... parts) {
+        return Base64.encodeUrlSafe(StrUtil.join(SEPARATOR, parts));
+    }
+
+    /**
+     * 解析游标
+     * @param cursor 游标
+     * @param size 排序字段个数
+     * @return 排序字段，游标为空时返回null
+     */
+    public static String[] decode(String cursor, int size) {
+        if (StrUtil.isBlank(cursor)) {
+            return null;
+        }
+        String[] parts;
+        try {
+            parts = Base64.decodeStr(cursor).split(SEPARATOR);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("无效的游标");
+        }
+        if (parts.length != size) {
+            throw new IllegalArgumentException("无效的游标");
+        }
+        return parts;
+    }
+}
@@ -0,0 +1,153 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.FEED_NOTIFY_CHANNEL;
+import static com.hmdp.utils.RedisConstants.FOLLOWS_KEY;
+
+/**
+ * feed新内容的SSE推送：推送任务通过Redis频道广播给所有实例，
+ * 每个实例只通知连接在本机上的用户
+ */
+@Slf4j
+@Component
+public class FeedNotifier implements MessageListener {
+
+    private static final long SSE_TIMEOUT = TimeUnit.MINUTES.toMillis(30);
+
+    /**
+     * 连接在本机上的用户，userId -> 该用户的SSE连接（可能有多个设备）
+     */
+    private final Map<Long, Set<SseEmitter>> emitters = new ConcurrentHashMap<>();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    public FeedNotifier(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(FEED_NOTIFY_CHANNEL));
+    }
+
+    /**
+     * 用户订阅feed新内容通知
+     * @param userId
+     * @return
+     */
+    public SseEmitter subscribe(Long userId) {
+        SseEmitter emitter = new SseEmitter(SSE_TIMEOUT);
+        emitters.computeIfAbsent(userId, k -> new CopyOnWriteArraySet<>()).add(emitter);
+        Runnable remove = () -> removeEmitter(userId, emitter);
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(e -> remove.run());
+        return emitter;
+    }
+
+    /**
+     * 通知一批粉丝有新的笔记推送到了收件箱
+     * @param blogId
+     * @param userIds
+     */
+    public void notifyInbox(Long blogId, Collection<Long> userIds) {
+        JSONObject message = JSONUtil.createObj().set("blogId", blogId).set("userIds", userIds);
+        stringRedisTemplate.convertAndSend(FEED_NOTIFY_CHANNEL, message.toString());
+    }
+
+    /**
+     * 通知大V的粉丝有新的笔记，大V的笔记不推送到收件箱，由各实例自行判断本机用户是否关注了作者
+     * @param blogId
+     * @param authorId
+     */
+    public void notifyOutbox(Long blogId, Long authorId) {
+        JSONObject message = JSONUtil.createObj().set("blogId", blogId).set("authorId", authorId);
+        stringRedisTemplate.convertAndSend(FEED_NOTIFY_CHANNEL, message.toString());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (emitters.isEmpty()) {
+            return;
+        }
+        JSONObject json = JSONUtil.parseObj(new String(message.getBody(), StandardCharsets.UTF_8));
+        Long blogId = json.getLong("blogId");
+        List<Long> userIds;
+        if (json.containsKey("userIds")) {
+            userIds = json.getJSONArray("userIds").toList(Long.class);
+        } else {
+            userIds = followersOnline(json.getLong("authorId"));
+        }
+        for (Long userId : userIds) {
+            Set<SseEmitter> set = emitters.get(userId);
+            if (set == null) {
+                continue;
+            }
+            for (SseEmitter emitter : set) {
+                try {
+                    emitter.send(SseEmitter.event().name("feed").data(blogId.toString()));
+                } catch (IOException | IllegalStateException e) {
+                    removeEmitter(userId, emitter);
+                }
+            }
+        }
+    }
+
+    /**
+     * 本机在线的用户中，关注了作者的用户，通过管道一次查询
+     * @param authorId
+     * @return
+     */
+    private List<Long> followersOnline(Long authorId) {
+        List<Long> online = new ArrayList<>(emitters.keySet());
+        String member = authorId.toString();
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long userId : online) {
+                conn.sIsMember(FOLLOWS_KEY + userId, member);
+            }
+            return null;
+        });
+        List<Long> followers = new ArrayList<>();
+        for (int i = 0; i < online.size(); i++) {
+            if (Boolean.TRUE.equals(results.get(i))) {
+                followers.add(online.get(i));
+            }
+        }
+        return followers;
+    }
+
+    private void removeEmitter(Long userId, SseEmitter emitter) {
+        emitters.computeIfPresent(userId, (k, set) -> {
+            set.remove(emitter);
+            return set.isEmpty() ? null : set;
+        });
+    }
+}
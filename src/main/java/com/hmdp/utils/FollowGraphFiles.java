@@ -0,0 +1,248 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 关注关系的文件格式：合作方导入的CSV，以及导出的二进制邻接表快照
+ * @author
+ */
+@Slf4j
+public class FollowGraphFiles {
+
+    /**
+     * 快照文件的魔数 "HMFG" 与版本
+     */
+    public static final int SNAPSHOT_MAGIC = 0x484D4647;
+    public static final int SNAPSHOT_VERSION = 1;
+
+    /**
+     * 流式读取关注关系CSV，每行一条：userId,followUserId，跳过空行、#开头的注释、格式错误的行和自己关注自己
+     * @param file
+     * @param batchSize 每批的条数
+     * @param handler 处理一批关注关系，每条为 {userId, followUserId}，调用后列表会被清空复用
+     * @return 读取的关注关系条数
+     * @throws IOException
+     */
+    public static long readEdges(Path file, int batchSize, Consumer<List<long[]>> handler) throws IOException {
+        long total = 0;
+        List<long[]> batch = new ArrayList<>(batchSize);
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                long[] edge = parseEdge(line);
+                if (edge == null) {
+                    log.warn("跳过格式错误的关注关系: {}", line);
+                    continue;
+                }
+                batch.add(edge);
+                if (batch.size() >= batchSize) {
+                    handler.accept(batch);
+                    total += batch.size();
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            handler.accept(batch);
+            total += batch.size();
+        }
+        return total;
+    }
+
+    /**
+     * 解析一行关注关系
+     * @param line userId,followUserId
+     * @return {userId, followUserId}，格式错误或自己关注自己时返回null
+     */
+    public static long[] parseEdge(String line) {
+        int comma = line.indexOf(',');
+        if (comma < 0) {
+            return null;
+        }
+        try {
+            long userId = Long.parseLong(line.substring(0, comma).trim());
+            long followUserId = Long.parseLong(line.substring(comma + 1).trim());
+            return userId == followUserId ? null : new long[]{userId, followUserId};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 无符号变长整数编码，每个字节低7位存数据，最高位表示后面还有字节
+     */
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    public static long readVarLong(DataInput in) throws IOException {
+        return readVarLong(in, in.readUnsignedByte());
+    }
+
+    private static long readVarLong(DataInput in, int b) throws IOException {
+        long value = b & 0x7F;
+        int shift = 7;
+        while ((b & 0x80) != 0) {
+            if (shift >= 64) {
+                throw new IOException("变长整数超过64位");
+            }
+            b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        }
+        return value;
+    }
+
+    /**
+     * 快照写入：魔数 HMFG(int) + 版本(byte)，之后按 user_id 升序，每个用户一条记录：
+     * varint(userId - 上一个userId) varint(关注数) varint(followUserId - 上一个followUserId)...
+     * 关注列表按 follow_user_id 升序，差值编码后大多只占1~2个字节
+     */
+    public static class SnapshotWriter implements Closeable {
+
+        private final DataOutputStream out;
+        private long prevUserId = 0;
+        private long currentUserId = -1;
+        private long[] followees = new long[64];
+        private int degree = 0;
+        private long edges = 0;
+
+        public SnapshotWriter(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(out);
+            this.out.writeInt(SNAPSHOT_MAGIC);
+            this.out.writeByte(SNAPSHOT_VERSION);
+        }
+
+        /**
+         * 写入一条关注关系，必须按 (userId, followUserId) 升序写入
+         */
+        public void write(long userId, long followUserId) throws IOException {
+            if (userId < currentUserId || (userId == currentUserId && followUserId <= followees[degree - 1])) {
+                throw new IllegalArgumentException("关注关系必须按 (userId, followUserId) 升序写入");
+            }
+            // 换了用户，写出上一个用户的关注列表
+            if (userId != currentUserId) {
+                writeAdjacency();
+                currentUserId = userId;
+            }
+            if (degree == followees.length) {
+                followees = Arrays.copyOf(followees, degree * 2);
+            }
+            followees[degree++] = followUserId;
+            edges++;
+        }
+
+        /**
+         * @return 已写入的关注关系条数
+         */
+        public long getEdges() {
+            return edges;
+        }
+
+        private void writeAdjacency() throws IOException {
+            if (degree == 0) {
+                return;
+            }
+            writeVarLong(out, currentUserId - prevUserId);
+            writeVarLong(out, degree);
+            long prev = 0;
+            for (int i = 0; i < degree; i++) {
+                writeVarLong(out, followees[i] - prev);
+                prev = followees[i];
+            }
+            prevUserId = currentUserId;
+            degree = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                writeAdjacency();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * 快照读取，每次读取一个用户的关注列表
+     */
+    public static class SnapshotReader implements Closeable {
+
+        private final DataInputStream in;
+        private long userId = 0;
+        private long[] followUserIds;
+
+        public SnapshotReader(InputStream in) throws IOException {
+            this.in = new DataInputStream(in);
+            if (this.in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("不是关注关系快照文件");
+            }
+            int version = this.in.readUnsignedByte();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException("不支持的快照版本: " + version);
+            }
+        }
+
+        /**
+         * 读取下一个用户
+         * @return 是否还有用户，读完返回false
+         */
+        public boolean next() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                return false;
+            }
+            userId += readVarLong(in, b);
+            int degree = (int) readVarLong(in);
+            followUserIds = new long[degree];
+            long prev = 0;
+            for (int i = 0; i < degree; i++) {
+                prev += readVarLong(in);
+                followUserIds[i] = prev;
+            }
+            return true;
+        }
+
+        public long getUserId() {
+            return userId;
+        }
+
+        /**
+         * @return 当前用户关注的人，升序
+         */
+        public long[] getFollowUserIds() {
+            return followUserIds;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * 图片缩略图：上传图片后由后台线程生成固定宽度的缩略图（文件名加 _s 后缀），
+ * 列表接口返回缩略图地址，减少每页的图片流量
+ */
+@Slf4j
+@Component
+public class ImageThumbnailer {
+
+    private static final ExecutorService THUMBNAIL_EXECUTOR = Executors.newFixedThreadPool(2);
+
+    /**
+     * 上传目录的规范路径，图片路径来自用户提交的笔记，解析后必须在该目录下
+     */
+    private static final String UPLOAD_DIR_PATH = canonicalPath(new File(SystemConstants.IMAGE_UPLOAD_DIR));
+
+    /**
+     * 正在生成的图片，避免重复提交
+     */
+    private final Set<String> generating = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 已生成的缩略图文件名，命中时不再访问文件系统
+     */
+    private final LRUCache<String, Boolean> generated = CacheUtil.newLRUCache(SystemConstants.THUMBNAIL_CACHE_SIZE);
+
+    /**
+     * 异步生成缩略图
+     * @param fileName 上传目录下的文件名，如 /blogs/1/2/xxx.jpg
+     */
+    public void submit(String fileName) {
+        if (!generating.add(fileName)) {
+            return;
+        }
+        THUMBNAIL_EXECUTOR.submit(() -> {
+            try {
+                generate(fileName);
+            } catch (Exception e) {
+                log.error("生成缩略图失败, {}", fileName, e);
+            } finally {
+                generating.remove(fileName);
+            }
+        });
+    }
+
+    /**
+     * 删除缩略图
+     * @param fileName 上传目录下的原图文件名
+     */
+    public void delete(String fileName) {
+        generated.remove(thumbnailName(fileName));
+        File thumbnail = resolveUploadFile(thumbnailName(fileName));
+        if (thumbnail != null) {
+            FileUtil.del(thumbnail);
+        }
+    }
+
+    /**
+     * 解析上传目录下的文件，拒绝 ../ 等跳出上传目录的路径
+     * @param fileName 上传目录下的文件名
+     * @return 文件，路径不在上传目录下时返回null
+     */
+    public static File resolveUploadFile(String fileName) {
+        String path = canonicalPath(new File(SystemConstants.IMAGE_UPLOAD_DIR, fileName));
+        if (path == null || UPLOAD_DIR_PATH == null || !path.startsWith(UPLOAD_DIR_PATH + File.separator)) {
+            return null;
+        }
+        return new File(path);
+    }
+
+    private static String canonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 把逗号分隔的图片解析为缩略图地址列表，外部图片原样返回，
+     * 本地图片的缩略图还没有生成时返回原图，并补充生成
+     * @param images 逗号分隔的图片地址
+     * @return
+     */
+    public List<String> thumbnails(String images) {
+        if (StrUtil.isBlank(images)) {
+            return Collections.emptyList();
+        }
+        return StrUtil.split(images, ',', true, true).stream()
+                .map(this::thumbnailOf)
+                .collect(Collectors.toList());
+    }
+
+    private String thumbnailOf(String url) {
+        // 1.外部图片，原样返回
+        if (!url.startsWith(SystemConstants.IMAGE_URL_PREFIX)) {
+            return url;
+        }
+        // 2.本地图片，只按文件名判断是否跳出上传目录，不在请求线程中解析规范路径
+        String fileName = url.substring(SystemConstants.IMAGE_URL_PREFIX.length());
+        if (!isSafeFileName(fileName)) {
+            return url;
+        }
+        // 3.缩略图已生成则返回缩略图地址，先查本地缓存，未命中再检查文件
+        String thumbnailName = thumbnailName(fileName);
+        if (generated.containsKey(thumbnailName)) {
+            return SystemConstants.IMAGE_URL_PREFIX + thumbnailName;
+        }
+        if (new File(SystemConstants.IMAGE_UPLOAD_DIR, thumbnailName).exists()) {
+            generated.put(thumbnailName, Boolean.TRUE);
+            return SystemConstants.IMAGE_URL_PREFIX + thumbnailName;
+        }
+        // 4.缩略图不存在（如历史图片），先返回原图并补充生成，生成时再校验规范路径
+        if (new File(SystemConstants.IMAGE_UPLOAD_DIR, fileName).isFile()) {
+            submit(fileName);
+        }
+        return url;
+    }
+
+    /**
+     * 文件名中没有 .. 和盘符，拼接在上传目录后不会跳出上传目录
+     * @param fileName 上传目录下的文件名
+     * @return
+     */
+    private static boolean isSafeFileName(String fileName) {
+        for (String part : fileName.split("[/\\\\]")) {
+            if ("..".equals(part) || part.indexOf(':') >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void generate(String fileName) throws Exception {
+        File source = resolveUploadFile(fileName);
+        File target = resolveUploadFile(thumbnailName(fileName));
+        if (source == null || target == null || target.exists() || !source.isFile()) {
+            return;
+        }
+        BufferedImage image = ImageIO.read(source);
+        if (image == null) {
+            // 不支持的图片格式
+            return;
+        }
+        // 1.按固定宽度等比缩放，原图更小则不放大，PNG保留透明通道
+        String format = StrUtil.subAfter(fileName, ".", true).toLowerCase();
+        boolean alpha = "png".equals(format) && image.getColorModel().hasAlpha();
+        int width = Math.min(image.getWidth(), SystemConstants.THUMBNAIL_WIDTH);
+        int height = Math.max(1, image.getHeight() * width / image.getWidth());
+        BufferedImage thumbnail = new BufferedImage(width, height,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = thumbnail.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        // 2.先写临时文件再重命名，避免读到写了一半的缩略图
+        File tmp = new File(target.getPath() + ".tmp");
+        if (!ImageIO.write(thumbnail, format, tmp)) {
+            FileUtil.del(tmp);
+            return;
+        }
+        FileUtil.rename(tmp, target.getName(), true);
+        generated.put(thumbnailName(fileName), Boolean.TRUE);
+    }
+
+    /**
+     * 缩略图文件名：在扩展名前加 _s 后缀
+     * @param fileName
+     * @return
+     */
+    private static String thumbnailName(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot <= fileName.lastIndexOf('/')) {
+            return fileName + SystemConstants.THUMBNAIL_SUFFIX;
+        }
+        return fileName.substring(0, dot) + SystemConstants.THUMBNAIL_SUFFIX + fileName.substring(dot);
+    }
+}
@@ -0,0 +1,77 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * 敏感词审核，启动时把敏感词编译成 Aho-Corasick 自动机，
+ * 审核时只需要把评论内容扫描一遍，与敏感词的数量无关
+ */
+@Component
+public class KeywordCommentFilter implements CommentFilter {
+
+    private final Node root = new Node();
+
+    public KeywordCommentFilter(@Value("${hmdp.comment.sensitive-words:}") String[] words) {
+        // 1.构建字典树
+        for (String word : words) {
+            if (StrUtil.isBlank(word)) {
+                continue;
+            }
+            Node node = root;
+            for (char c : word.trim().toLowerCase().toCharArray()) {
+                node = node.children.computeIfAbsent(c, k -> new Node());
+            }
+            node.end = true;
+        }
+        // 2.广度优先构建失配指针，失配指针指向的节点是敏感词结尾，则当前节点也算结尾
+        Queue<Node> queue = new ArrayDeque<>();
+        for (Node child : root.children.values()) {
+            child.fail = root;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            for (Map.Entry<Character, Node> entry : node.children.entrySet()) {
+                Node child = entry.getValue();
+                Node fail = node.fail;
+                while (fail != null && !fail.children.containsKey(entry.getKey())) {
+                    fail = fail.fail;
+                }
+                child.fail = fail == null ? root : fail.children.get(entry.getKey());
+                child.end |= child.fail.end;
+                queue.add(child);
+            }
+        }
+    }
+
+    @Override
+    public boolean accept(String content) {
+        if (root.children.isEmpty() || StrUtil.isEmpty(content)) {
+            return true;
+        }
+        Node node = root;
+        for (char c : content.toLowerCase().toCharArray()) {
+            while (node != root && !node.children.containsKey(c)) {
+                node = node.fail;
+            }
+            node = node.children.getOrDefault(c, root);
+            if (node.end) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Node {
+        private final Map<Character, Node> children = new HashMap<>();
+        private Node fail;
+        private boolean end;
+    }
+}
@@ -0,0 +1,131 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.UserDTO;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 登录用户的本地缓存：token -> UserDTO，短时间内的重复请求不访问Redis，
+ * 登录有效期的续期也做节流，同一个token每隔一段时间才发送一次EXPIRE。
+ * 退出登录时通过Redis频道通知所有实例删除本地缓存；通知丢失时，最晚在下次续期时发现会话已不存在
+ */
+@Component
+public class LoginSessionCache implements MessageListener {
+
+    private static final long REFRESH_INTERVAL = TimeUnit.MINUTES.toMillis(LOGIN_USER_REFRESH_INTERVAL);
+
+    /**
+     * 有效期为两个续期间隔，续期成功后重新放入，活跃的token只在第一次请求时查询一次Redis
+     */
+    private final LRUCache<String, Session> cache = CacheUtil.newLRUCache(
+            SystemConstants.LOGIN_LOCAL_CACHE_SIZE, REFRESH_INTERVAL * 2);
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    public LoginSessionCache(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(LOGIN_INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * 根据token查询登录用户，并在需要时续期
+     * @param token
+     * @return 登录用户，token无效时返回null
+     */
+    public UserDTO get(String token) {
+        String key = LOGIN_USER_KEY + token;
+        long now = System.currentTimeMillis();
+        // 1.查询本地缓存，不更新访问时间，保证本地缓存的时效
+        Session session = cache.get(token, false);
+        if (session != null) {
+            // 2.命中，距离上次续期不足间隔时直接返回
+            if (now - session.refreshTime < REFRESH_INTERVAL) {
+                return session.user;
+            }
+            // 3.需要续期，同时续期会话索引；key不存在说明已退出登录或过期
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                conn.expire(key, TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL));
+                conn.expire(LOGIN_SESSIONS_KEY + session.user.getId(), TimeUnit.DAYS.toSeconds(LOGIN_REFRESH_TTL));
+                return null;
+            });
+            if (!Boolean.TRUE.equals(results.get(0))) {
+                cache.remove(token);
+                return null;
+            }
+            session.refreshTime = now;
+            cache.put(token, session);
+            return session.user;
+        }
+        // 4.未命中，在一个管道中查询并续期
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hGetAll(key);
+            conn.expire(key, TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL));
+            return null;
+        });
+        @SuppressWarnings("unchecked")
+        UserDTO user = UserHashCodec.decode((Map<String, String>) results.get(0));
+        if (user == null) {
+            return null;
+        }
+        // 5.写入本地缓存
+        cache.put(token, new Session(user, now));
+        return user;
+    }
+
+    /**
+     * 删除本机缓存的token
+     * @param token
+     */
+    public void invalidate(String token) {
+        cache.remove(token);
+    }
+
+    /**
+     * 收到其他实例的退出登录通知，消息为逗号分隔的token
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        for (String token : StrUtil.split(new String(message.getBody(), StandardCharsets.UTF_8), ',', true, true)) {
+            cache.remove(token);
+        }
+    }
+
+    private static class Session {
+        private final UserDTO user;
+        /**
+         * 上次续期的时间，只影响续期频率，并发下偶尔多续期一次无妨
+         */
+        private volatile long refreshTime;
+
+        private Session(UserDTO user, long refreshTime) {
+            this.user = user;
+            this.refreshTime = refreshTime;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.hmdp.utils;
+
+/**
+ * long 类型的布隆过滤器，判断不存在时一定不存在，判断存在时可能误判，
+ * 用于在访问Redis之前快速排除绝大多数不需要查询的情况
+ */
+public class LongBloomFilter {
+
+    private final long[] bits;
+    private final int mask;
+    private final int hashes;
+
+    /**
+     * @param bitSize 位数，向上取整为2的幂
+     * @param hashes 哈希函数个数
+     */
+    public LongBloomFilter(int bitSize, int hashes) {
+        int size = Integer.highestOneBit(Math.max(64, bitSize) - 1) << 1;
+        this.bits = new long[size >>> 6];
+        this.mask = size - 1;
+        this.hashes = hashes;
+    }
+
+    public void add(long value) {
+        long hash = mix(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            int index = (h1 + i * h2) & mask;
+            bits[index >>> 6] |= 1L << index;
+        }
+    }
+
+    public boolean mightContain(long value) {
+        long hash = mix(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            int index = (h1 + i * h2) & mask;
+            if ((bits[index >>> 6] & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * SplitMix64 的混合函数，让相近的值也均匀分布
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,204 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.RateLimitProperties;
+import com.hmdp.config.RateLimitProperties.Policy;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.RATE_LIMIT_KEY;
+
+/**
+ * 限流：按配置的策略，先在本机做粗粒度的预限流拦住明显的洪峰，
+ * 再用Redis中的Lua脚本原子地执行令牌桶或滑动窗口算法，保证多个实例共享同一个额度
+ */
+@Slf4j
+@Component
+public class RateLimiter {
+
+    private static final String TOKEN_BUCKET = "token-bucket";
+    private static final String SLIDING_WINDOW = "sliding-window";
+    private static final String PARAM_PREFIX = "param:";
+
+    private static final DefaultRedisScript<Long> RATE_LIMIT_SCRIPT;
+
+    static {
+        RATE_LIMIT_SCRIPT = new DefaultRedisScript<>();
+        RATE_LIMIT_SCRIPT.setLocation(new ClassPathResource("rate_limit.lua"));
+        RATE_LIMIT_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RateLimitProperties properties;
+
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    /**
+     * 本机预限流的计数窗口，key -> 当前秒的计数，长时间不访问的key自动淘汰
+     */
+    private final LRUCache<String, LocalWindow> localWindows = CacheUtil.newLRUCache(
+            SystemConstants.RATE_LIMIT_LOCAL_CACHE_SIZE, TimeUnit.SECONDS.toMillis(10));
+
+    /**
+     * 各策略的拒绝次数，本机预限流和Redis限流分别统计
+     */
+    private final Map<String, LongAdder> localRejected = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> redisRejected = new ConcurrentHashMap<>();
+
+    public RateLimiter(StringRedisTemplate stringRedisTemplate, RateLimitProperties properties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.properties = properties;
+    }
+
+    @PostConstruct
+    private void init() {
+        // 启动时校验配置，避免错误的配置在运行时才暴露
+        for (Policy policy : properties.getPolicies()) {
+            boolean valid = StrUtil.isNotBlank(policy.getName()) && StrUtil.isNotBlank(policy.getPath()) && policy.getLimit() > 0
+                    && (TOKEN_BUCKET.equals(policy.getAlgorithm()) && policy.getRate() > 0
+                    || SLIDING_WINDOW.equals(policy.getAlgorithm()) && policy.getWindow() > 0);
+            if (!valid) {
+                throw new IllegalStateException("限流策略配置错误: " + policy);
+            }
+            localRejected.put(policy.getName(), new LongAdder());
+            redisRejected.put(policy.getName(), new LongAdder());
+        }
+    }
+
+    /**
+     * 检查请求匹配的所有策略。本机预限流统计的是到达的请求数，用来拦住洪峰；
+     * Redis中的额度由一次脚本调用检查所有策略，全部放行时才扣减，被某个策略拒绝时不消耗其它策略的额度
+     * @param request
+     * @return 拒绝请求的策略名，放行时返回null
+     */
+    public String tryAcquire(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        List<Policy> matched = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        for (Policy policy : properties.getPolicies()) {
+            // 1.匹配路径和方法
+            if (!pathMatcher.match(policy.getPath(), uri)
+                    || policy.getMethod() != null && !policy.getMethod().equalsIgnoreCase(request.getMethod())) {
+                continue;
+            }
+            // 2.取出限流的维度，如按手机号限流但没有传手机号，交给业务校验
+            String subject = resolveSubject(policy, request);
+            if (subject == null) {
+                continue;
+            }
+            String key = RATE_LIMIT_KEY + policy.getName() + ":" + subject;
+            // 3.本机预限流
+            if (policy.getLocalLimit() > 0
+                    && !localWindows.get(key, false, LocalWindow::new).tryAcquire(policy.getLocalLimit())) {
+                localRejected.get(policy.getName()).increment();
+                return policy.getName();
+            }
+            // 4.Redis限流的参数，每个策略4个，格式见 rate_limit.lua
+            matched.add(policy);
+            keys.add(key);
+            args.add(policy.getAlgorithm());
+            if (TOKEN_BUCKET.equals(policy.getAlgorithm())) {
+                args.add(String.valueOf(policy.getLimit()));
+                args.add(String.valueOf(policy.getRate()));
+                args.add("");
+            } else {
+                args.add(String.valueOf(TimeUnit.SECONDS.toMillis(policy.getWindow())));
+                args.add(String.valueOf(policy.getLimit()));
+                args.add(Long.toHexString(ThreadLocalRandom.current().nextLong()));
+            }
+        }
+        if (keys.isEmpty()) {
+            return null;
+        }
+        // 5.Redis限流
+        int rejected = acquire(keys, args);
+        if (rejected > 0) {
+            Policy policy = matched.get(rejected - 1);
+            redisRejected.get(policy.getName()).increment();
+            return policy.getName();
+        }
+        return null;
+    }
+
+    /**
+     * @return 0表示放行，否则为拒绝请求的策略序号（从1开始）
+     */
+    private int acquire(List<String> keys, List<String> args) {
+        Long rejected;
+        try {
+            rejected = stringRedisTemplate.execute(RATE_LIMIT_SCRIPT, keys, args.toArray());
+        } catch (Exception e) {
+            // Redis不可用时放行，限流不应该让正常请求失败
+            log.warn("限流脚本执行失败, 放行请求, keys: {}", keys, e);
+            return 0;
+        }
+        return rejected == null ? 0 : rejected.intValue();
+    }
+
+    private static String resolveSubject(Policy policy, HttpServletRequest request) {
+        String key = policy.getKey();
+        if (key.startsWith(PARAM_PREFIX)) {
+            String value = request.getParameter(key.substring(PARAM_PREFIX.length()));
+            return StrUtil.isBlank(value) ? null : value;
+        }
+        if ("user".equals(key)) {
+            UserDTO user = UserHolder.getUser();
+            if (user != null) {
+                return "u" + user.getId();
+            }
+        }
+        // 经过nginx转发时，由 server.forward-headers-strategy 从可信代理的 X-Forwarded-For 取出客户端ip
+        return request.getRemoteAddr();
+    }
+
+    /**
+     * 定时输出各策略的拒绝次数
+     */
+    @Scheduled(fixedDelay = 60 * 1000)
+    public void logRejections() {
+        for (Policy policy : properties.getPolicies()) {
+            long local = localRejected.get(policy.getName()).sumThenReset();
+            long redis = redisRejected.get(policy.getName()).sumThenReset();
+            if (local > 0 || redis > 0) {
+                log.info("限流策略 {} 最近一分钟拒绝请求: 本机预限流 {} 次, Redis限流 {} 次", policy.getName(), local, redis);
+            }
+        }
+    }
+
+    /**
+     * 本机的固定窗口计数，窗口为1秒
+     */
+    private static class LocalWindow {
+        private long second;
+        private int count;
+
+        private synchronized boolean tryAcquire(int limit) {
+            long now = System.currentTimeMillis() / 1000;
+            if (now != second) {
+                second = now;
+                count = 0;
+            }
+            return ++count <= limit;
+        }
+    }
+}
@@ -5,6 +5,28 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 3000L;
+    /**
+     * 登录有效期续期的最小间隔（分钟），同一个token在间隔内只续期一次
+     */
+    public static final Long LOGIN_USER_REFRESH_INTERVAL = 5L;
+    /**
+     * 签名令牌模式下的刷新令牌（天）与吊销列表
+     */
+    public static final String LOGIN_REFRESH_KEY = "login:refresh:";
+    public static final Long LOGIN_REFRESH_TTL = 7L;
+    public static final String LOGIN_REVOKED_KEY = "login:revoked";
+    /**
+     * 用户的会话索引：token -> 设备信息，签名令牌模式下记录刷新令牌；有效期与刷新令牌相同（天）
+     */
+    public static final String LOGIN_SESSIONS_KEY = "login:sessions:";
+    /**
+     * 退出登录后通知各实例删除本地缓存的token
+     */
+    public static final String LOGIN_INVALIDATE_CHANNEL = "login:invalidate";
+    /**
+     * 限流的key：limit:{策略名}:{ip、用户或参数}
+     */
+    public static final String RATE_LIMIT_KEY = "limit:";
 
     public static final Long CACHE_NULL_TTL = 2L;
 
@@ -13,13 +35,59 @@ public class RedisConstants {
 
     public static final String CACHE_SHOP_TYPE_KEY = "cache:shopType";
 
+    public static final Long CACHE_BLOG_TTL = 30L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+
+    public static final Long CACHE_COMMENTS_TTL = 5L;
+    public static final String CACHE_COMMENTS_KEY = "cache:comments:";
+
+    public static final Long CACHE_COMMENT_TTL = 30L;
+    public static final String CACHE_COMMENT_KEY = "cache:comment:";
+
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
+    public static final String LOCK_CACHE_KEY = "lock:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final String LOCK_FLUSH_KEY = "lock:flush:";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_LIKED_DELTA_KEY = "blog:liked:delta";
+    public static final String BLOG_HOT_KEY = "blog:hot";
+    public static final String BLOG_LIKED_TOP_KEY = "blog:liked:top:";
+    public static final String BLOG_COMMENTS_DELTA_KEY = "blog:comments:delta";
+    public static final String COMMENT_LIKED_KEY = "comment:liked:";
+    public static final String COMMENT_STREAM_KEY = "stream.comments";
+    public static final String COMMENT_STREAM_GROUP = "g1";
+    /**
+     * 多次处理失败的评论转入的死信队列，需要人工处理
+     */
+    public static final String COMMENT_DEAD_STREAM_KEY = "stream.comments.dead";
+    public static final String COMMENT_LIKED_DELTA_KEY = "comment:liked:delta";
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_OUTBOX_KEY = "feed:outbox:";
+    public static final String FEED_BIG_V_KEY = "feed:bigv";
+    public static final String FEED_ACTIVE_KEY = "feed:active";
+    public static final String FEED_STREAM_KEY = "stream.feed";
+    public static final String FEED_STREAM_GROUP = "g1";
+    /**
+     * 多次推送失败的feed推送任务转入的死信队列，需要人工处理
+     */
+    public static final String FEED_DEAD_STREAM_KEY = "stream.feed.dead";
+    public static final String FEED_FANOUT_CHECKPOINT_KEY = "feed:fanout:checkpoint";
+    public static final String FEED_SEEN_KEY = "feed:seen";
+    public static final String FEED_NOTIFY_CHANNEL = "feed:notify";
+    public static final String FOLLOWS_KEY = "follows:";
+    public static final String FANS_KEY = "fans:";
+    public static final String USER_FANS_DELTA_KEY = "user:fans:delta";
+    public static final String USER_FOLLOWEE_DELTA_KEY = "user:followee:delta";
+    public static final String USER_COUNTS_BACKFILL_KEY = "user:counts:backfill";
+    public static final String RECOMMEND_KEY = "recommend:";
+    public static final String RECOMMEND_DIRTY_KEY = "recommend:dirty";
+    public static final Long RECOMMEND_TTL = 7L;
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
 }
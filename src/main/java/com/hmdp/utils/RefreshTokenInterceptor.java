@@ -1,22 +1,21 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
 public class RefreshTokenInterceptor implements HandlerInterceptor {
 
-    private StringRedisTemplate stringRedisTemplate;
+    private LoginSessionCache loginSessionCache;
 
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    private SignedTokenManager signedTokenManager;
+
+    public RefreshTokenInterceptor(LoginSessionCache loginSessionCache, SignedTokenManager signedTokenManager) {
+        this.loginSessionCache = loginSessionCache;
+        this.signedTokenManager = signedTokenManager;
     }
 
     public RefreshTokenInterceptor() {
@@ -38,24 +37,19 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         if (StrUtil.isBlank(token)) {
             return true;
         }
-        // 2 获取redis中的用户
-        String key = RedisConstants.LOGIN_USER_KEY + token;
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(key);
+        // 2 签名令牌只校验签名和有效期；其他令牌查询登录用户，优先读本地缓存，续期按间隔节流
+        UserDTO userDTO = SignedTokenManager.isSignedToken(token)
+                ? signedTokenManager.verify(token)
+                : loginSessionCache.get(token);
 
         // 3 判断用户是否存在
-        if (userMap.isEmpty()) {
+        if (userDTO == null) {
             return true;
         }
 
-        // 5 将查询到的Hash数据转为UserDTO对象
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
-
-        // 6 存在，保存用户信息到TreadLocal
+        // 4 存在，保存用户信息到TreadLocal
         UserHolder.saveUser(userDTO);
 
-        // 7 刷新token有效期
-        stringRedisTemplate.expire(key, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
-
         // 放行
         return true;
     }
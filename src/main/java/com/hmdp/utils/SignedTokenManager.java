@@ -0,0 +1,237 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.LoginTokenDTO;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 签名令牌：令牌中携带用户信息和过期时间，用HMAC签名，校验只需要计算签名，不访问Redis。
+ * 令牌格式为 base64url(内容).base64url(签名)，与UUID令牌通过是否包含 "." 区分。
+ * 提前失效的令牌记录在Redis的吊销列表中，本地用布隆过滤器过滤，只有疑似吊销时才查询Redis
+ */
+@Slf4j
+@Component
+public class SignedTokenManager {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final byte VERSION = 1;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final boolean enabled;
+    private final SecretKeySpec key;
+    private final long accessTtl;
+
+    /**
+     * Mac 不是线程安全的，每个线程一个实例
+     */
+    private final ThreadLocal<Mac> macs;
+
+    /**
+     * 吊销列表的本地布隆过滤器，定时从Redis重建
+     */
+    private volatile LongBloomFilter revoked = newRevokedFilter();
+
+    public SignedTokenManager(StringRedisTemplate stringRedisTemplate,
+                              @Value("${hmdp.login.mode:redis}") String mode,
+                              @Value("${hmdp.login.secret:}") String secret,
+                              @Value("${hmdp.login.access-ttl:30}") long accessTtlMinutes) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.enabled = "signed".equalsIgnoreCase(mode);
+        if (enabled && StrUtil.length(secret) < 32) {
+            throw new IllegalStateException("签名令牌模式需要配置至少32位的 hmdp.login.secret");
+        }
+        this.key = new SecretKeySpec(StrUtil.blankToDefault(secret, "disabled").getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM);
+        this.accessTtl = TimeUnit.MINUTES.toSeconds(accessTtlMinutes);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * 是否启用签名令牌，未启用时登录使用Redis中的会话
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public static boolean isSignedToken(String token) {
+        return token.indexOf('.') > 0;
+    }
+
+    /**
+     * 签发访问令牌和刷新令牌
+     * @param user
+     * @return
+     */
+    public LoginTokenDTO issue(UserDTO user) {
+        // 1.签发访问令牌
+        long expireAt = System.currentTimeMillis() / 1000 + accessTtl;
+        String token = sign(encode(ThreadLocalRandom.current().nextLong(), expireAt, user));
+        // 2.刷新令牌只保存用户id，刷新时重新查询用户信息
+        String refreshToken = UUID.randomUUID().toString(true);
+        stringRedisTemplate.opsForValue().set(LOGIN_REFRESH_KEY + refreshToken, user.getId().toString(),
+                LOGIN_REFRESH_TTL, TimeUnit.DAYS);
+        return new LoginTokenDTO(token, refreshToken);
+    }
+
+    /**
+     * 校验访问令牌
+     * @param token
+     * @return 令牌中的用户，签名错误、过期或已吊销时返回null
+     */
+    public UserDTO verify(String token) {
+        Claims claims = parse(token);
+        if (claims == null) {
+            return null;
+        }
+        // 布隆过滤器判断不存在则一定未吊销，否则查询Redis确认
+        if (revoked.mightContain(claims.id)
+                && stringRedisTemplate.opsForZSet().score(LOGIN_REVOKED_KEY, String.valueOf(claims.id)) != null) {
+            return null;
+        }
+        return claims.user;
+    }
+
+    /**
+     * 吊销访问令牌，记录保留到令牌过期为止
+     * @param token
+     */
+    public void revoke(String token) {
+        Claims claims = parse(token);
+        if (claims == null) {
+            return;
+        }
+        stringRedisTemplate.opsForZSet().add(LOGIN_REVOKED_KEY, String.valueOf(claims.id), claims.expireAt);
+        revoked.add(claims.id);
+    }
+
+    /**
+     * 清理已过期的吊销记录，并重建本地布隆过滤器，其他实例的吊销在一个周期内生效
+     */
+    @Scheduled(fixedDelay = 10000)
+    public void reloadRevoked() {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis() / 1000;
+        stringRedisTemplate.opsForZSet().removeRangeByScore(LOGIN_REVOKED_KEY, 0, now);
+        Set<String> ids = stringRedisTemplate.opsForZSet().rangeByScore(LOGIN_REVOKED_KEY, now, Double.MAX_VALUE);
+        LongBloomFilter filter = newRevokedFilter();
+        if (ids != null) {
+            for (String id : ids) {
+                filter.add(Long.parseLong(id));
+            }
+        }
+        revoked = filter;
+    }
+
+    private static LongBloomFilter newRevokedFilter() {
+        // 吊销记录最多保留一个访问令牌有效期，数量不大，1M位足够
+        return new LongBloomFilter(1 << 20, 4);
+    }
+
+    private String sign(byte[] payload) {
+        return ENCODER.encodeToString(payload) + "." + ENCODER.encodeToString(macs.get().doFinal(payload));
+    }
+
+    private Claims parse(String token) {
+        if (!enabled) {
+            return null;
+        }
+        int dot = token.lastIndexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        try {
+            // 1.校验签名，使用定长时间比较
+            byte[] payload = DECODER.decode(token.substring(0, dot));
+            byte[] signature = DECODER.decode(token.substring(dot + 1));
+            if (!MessageDigest.isEqual(macs.get().doFinal(payload), signature)) {
+                return null;
+            }
+            // 2.解析内容，校验有效期
+            Claims claims = decode(payload);
+            if (claims == null || claims.expireAt <= System.currentTimeMillis() / 1000) {
+                return null;
+            }
+            return claims;
+        } catch (IllegalArgumentException | IOException e) {
+            return null;
+        }
+    }
+
+    private static byte[] encode(long id, long expireAt, UserDTO user) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeLong(id);
+            out.writeLong(expireAt);
+            out.writeLong(user.getId());
+            out.writeUTF(StrUtil.nullToEmpty(user.getNickName()));
+            out.writeUTF(StrUtil.nullToEmpty(user.getIcon()));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Claims decode(byte[] payload) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            if (in.readByte() != VERSION) {
+                return null;
+            }
+            Claims claims = new Claims();
+            claims.id = in.readLong();
+            claims.expireAt = in.readLong();
+            UserDTO user = new UserDTO();
+            user.setId(in.readLong());
+            user.setNickName(in.readUTF());
+            user.setIcon(in.readUTF());
+            claims.user = user;
+            return claims;
+        }
+    }
+
+    private static class Claims {
+        /**
+         * 令牌id，用于吊销
+         */
+        private long id;
+        /**
+         * 过期时间，秒
+         */
+        private long expireAt;
+        private UserDTO user;
+    }
+}
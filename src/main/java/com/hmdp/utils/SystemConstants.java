@@ -5,7 +5,132 @@ public class SystemConstants {
      * nginx中存储图片地址
      */
     public static final String IMAGE_UPLOAD_DIR = "D:\\BaiduNetdiskDownload\\HMRedis\\HMReview\\nginx-1.18.0\\html\\hmdp\\imgs";
+    /**
+     * 上传图片访问路径的前缀，对应nginx中的图片目录
+     */
+    public static final String IMAGE_URL_PREFIX = "/imgs";
+    /**
+     * 缩略图文件名的后缀，加在扩展名之前，如 xxx_s.jpg
+     */
+    public static final String THUMBNAIL_SUFFIX = "_s";
+    /**
+     * 缩略图的宽度，高度等比缩放
+     */
+    public static final int THUMBNAIL_WIDTH = 360;
+    /**
+     * 已生成的缩略图本地缓存的容量，命中时列表接口不再检查文件
+     */
+    public static final int THUMBNAIL_CACHE_SIZE = 10000;
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    /**
+     * 热度排行榜保留的笔记数
+     */
+    public static final int BLOG_HOT_MAX_SIZE = 1000;
+    /**
+     * 热度的时间衰减指数，热度 = 点赞数 / (发布小时数 + 2) ^ BLOG_HOT_GRAVITY
+     */
+    public static final double BLOG_HOT_GRAVITY = 1.5;
+    /**
+     * 计数增量同步到数据库时，每条SQL更新的行数
+     */
+    public static final int FLUSH_BATCH_SIZE = 500;
+    /**
+     * 关注feed流每页条数
+     */
+    public static final int FEED_PAGE_SIZE = 2;
+    /**
+     * 粉丝数达到该值的作者视为大V，笔记只写发件箱，由粉丝读取时拉取
+     */
+    public static final int FEED_BIG_V_THRESHOLD = 5000;
+    /**
+     * 推送feed时每批处理的粉丝数
+     */
+    public static final int FEED_FANOUT_BATCH_SIZE = 2000;
+    /**
+     * 收件箱最多保留的条数
+     */
+    public static final int FEED_INBOX_MAX_SIZE = 1000;
+    /**
+     * 发件箱最多保留的条数
+     */
+    public static final int FEED_OUTBOX_MAX_SIZE = 1000;
+    /**
+     * 超过该天数没有访问feed的用户不再推送，收件箱被回收，下次访问时重建
+     */
+    public static final int FEED_ACTIVE_DAYS = 30;
+    /**
+     * 评论入库时每批处理的条数
+     */
+    public static final int COMMENT_INGEST_BATCH_SIZE = 200;
+    /**
+     * 尚未入库的评论积压超过该值时拒绝新的评论
+     */
+    public static final int COMMENT_INGEST_MAX_BACKLOG = 10000;
+    /**
+     * 评论最多投递的次数，超过后转入死信队列，避免一直失败的评论被无限重试
+     */
+    public static final int COMMENT_INGEST_MAX_DELIVERIES = 5;
+    /**
+     * feed推送任务最多投递的次数，超过后转入死信队列，避免一条一直失败的任务阻塞之后所有的推送
+     */
+    public static final int FEED_FANOUT_MAX_DELIVERIES = 5;
+    /**
+     * 关注、粉丝集合中的占位成员，用于区分空集合与未加载
+     */
+    public static final String FOLLOW_SET_PLACEHOLDER = "0";
+    /**
+     * 查询共同关注时，每次最多遍历的关注数
+     */
+    public static final int FOLLOW_COMMON_SCAN_BUDGET = 2000;
+    /**
+     * 估算共同关注总数时的采样数，关注数不超过该值时是精确值
+     */
+    public static final int FOLLOW_COMMON_SAMPLE_SIZE = 500;
+    /**
+     * 可能认识的人：每个用户保留的推荐数
+     */
+    public static final int RECOMMEND_TOP_K = 50;
+    /**
+     * 可能认识的人：每次取出的待刷新用户数
+     */
+    public static final int RECOMMEND_BATCH_SIZE = 100;
+    /**
+     * 可能认识的人：查询二度关系时每批的关注数
+     */
+    public static final int RECOMMEND_QUERY_BATCH_SIZE = 500;
+    /**
+     * 可能认识的人：关注变化时最多标记的粉丝数，大V的粉丝只随机抽取一部分，其余的在推荐过期后重新计算
+     */
+    public static final int RECOMMEND_DIRTY_FANS_SAMPLE = 1000;
+    /**
+     * 批量导入关注关系时每批的条数
+     */
+    public static final int FOLLOW_IMPORT_BATCH_SIZE = 5000;
+    /**
+     * 导出关注关系快照时每页的条数
+     */
+    public static final int FOLLOW_EXPORT_PAGE_SIZE = 10000;
+    /**
+     * 登录用户本地缓存的容量
+     */
+    public static final int LOGIN_LOCAL_CACHE_SIZE = 10000;
+    /**
+     * 本机预限流最多记录的key数
+     */
+    public static final int RATE_LIMIT_LOCAL_CACHE_SIZE = 100000;
+    /**
+     * 互斥锁重建缓存时，获取锁失败的最大重试次数，每次间隔50毫秒
+     */
+    public static final int CACHE_MUTEX_MAX_RETRIES = 40;
+    /**
+     * 笔记列表并行查询作者的线程数、排队的任务数，排满后由请求线程自己执行
+     */
+    public static final int BLOG_FILL_THREADS = 32;
+    public static final int BLOG_FILL_QUEUE_SIZE = 256;
+    /**
+     * 等待并行查询作者的最长时间（毫秒），超时则在请求线程中同步查询
+     */
+    public static final long BLOG_FILL_TIMEOUT = 1000;
 }
@@ -0,0 +1,95 @@
+package com.hmdp.utils;
+
+/**
+ * 保留分数最高的 k 个元素的小顶堆，元素和分数都用基本类型数组存储，
+ * 每次插入 O(log k)，内存只与 k 有关
+ */
+public class TopKHeap {
+
+    private final long[] ids;
+    private final int[] scores;
+    private int size;
+
+    public TopKHeap(int k) {
+        ids = new long[k];
+        scores = new int[k];
+    }
+
+    /**
+     * 尝试加入一个元素，堆满时只有比堆顶分数高的元素才能替换堆顶
+     * @param id
+     * @param score
+     */
+    public void offer(long id, int score) {
+        if (ids.length == 0) {
+            return;
+        }
+        if (size < ids.length) {
+            ids[size] = id;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (greater(score, id, scores[0], ids[0])) {
+            ids[0] = id;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long idAt(int i) {
+        return ids[i];
+    }
+
+    public int scoreAt(int i) {
+        return scores[i];
+    }
+
+    /**
+     * 分数相同时id大的优先，保证结果稳定
+     */
+    private static boolean greater(int s1, long id1, int s2, long id2) {
+        return s1 > s2 || (s1 == s2 && id1 > id2);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!greater(scores[parent], ids[parent], scores[i], ids[i])) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                break;
+            }
+            int min = left;
+            int right = left + 1;
+            if (right < size && greater(scores[left], ids[left], scores[right], ids[right])) {
+                min = right;
+            }
+            if (!greater(scores[i], ids[i], scores[min], ids[min])) {
+                break;
+            }
+            swap(i, min);
+            i = min;
+        }
+    }
+
+    private void swap(int i, int j) {
+        long id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+        int score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+}
@@ -0,0 +1,60 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.User;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * UserDTO 与登录会话hash的转换，字段固定，手写转换代替 BeanUtil 的反射，
+ * 每个请求都要解析一次会话，新增 UserDTO 字段时需要同步修改这里
+ */
+public class UserHashCodec {
+
+    private static final String ID = "id";
+    private static final String NICK_NAME = "nickName";
+    private static final String ICON = "icon";
+
+    /**
+     * 转为hash，key 和 value 全为 string，为空的字段不保存
+     * @param user
+     * @return
+     */
+    public static Map<String, String> encode(UserDTO user) {
+        Map<String, String> hash = new HashMap<>(4);
+        hash.put(ID, user.getId().toString());
+        if (user.getNickName() != null) {
+            hash.put(NICK_NAME, user.getNickName());
+        }
+        if (user.getIcon() != null) {
+            hash.put(ICON, user.getIcon());
+        }
+        return hash;
+    }
+
+    /**
+     * 从hash解析
+     * @param hash
+     * @return hash为空或缺少id时返回null
+     */
+    public static UserDTO decode(Map<String, String> hash) {
+        String id = hash == null ? null : hash.get(ID);
+        if (id == null) {
+            return null;
+        }
+        UserDTO user = new UserDTO();
+        user.setId(Long.valueOf(id));
+        user.setNickName(hash.get(NICK_NAME));
+        user.setIcon(hash.get(ICON));
+        return user;
+    }
+
+    public static UserDTO toDTO(User user) {
+        UserDTO dto = new UserDTO();
+        dto.setId(user.getId());
+        dto.setNickName(user.getNickName());
+        dto.setIcon(user.getIcon());
+        return dto;
+    }
+}
@@ -1,7 +1,11 @@
 package com.hmdp.utils;
 
 import com.hmdp.dto.UserDTO;
-import com.hmdp.entity.User;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
 
 public class UserHolder {
     private static final ThreadLocal<UserDTO> tl = new ThreadLocal<>();
@@ -17,4 +21,84 @@ public class UserHolder {
     public static void removeUser(){
         tl.remove();
     }
+
+    /**
+     * 提交任务时记录当前登录用户，在执行任务的线程中恢复，执行完成后还原该线程原来的用户
+     * @param task
+     * @return
+     */
+    public static Runnable wrap(Runnable task) {
+        UserDTO user = tl.get();
+        return () -> {
+            UserDTO previous = replace(user);
+            try {
+                task.run();
+            } finally {
+                replace(previous);
+            }
+        };
+    }
+
+    /**
+     * 与 wrap(Runnable) 相同，用于 Callable，与 Supplier 分开命名，避免 lambda 参数的重载歧义
+     * @param task
+     * @return
+     */
+    public static <V> Callable<V> wrapCallable(Callable<V> task) {
+        UserDTO user = tl.get();
+        return () -> {
+            UserDTO previous = replace(user);
+            try {
+                return task.call();
+            } finally {
+                replace(previous);
+            }
+        };
+    }
+
+    /**
+     * 用于 CompletableFuture.supplyAsync 等没有指定线程池的场景
+     * @param task
+     * @return
+     */
+    public static <T> Supplier<T> wrapSupplier(Supplier<T> task) {
+        UserDTO user = tl.get();
+        return () -> {
+            UserDTO previous = replace(user);
+            try {
+                return task.get();
+            } finally {
+                replace(previous);
+            }
+        };
+    }
+
+    /**
+     * 包装线程池，提交到线程池的任务都能取到提交时的登录用户，
+     * 同样适用于 CompletableFuture 的 xxxAsync(..., executor)
+     * @param executor
+     * @return
+     */
+    public static Executor wrap(Executor executor) {
+        return task -> executor.execute(wrap(task));
+    }
+
+    /**
+     * 包装线程池，任意的 ExecutorService 都可以包装，包括虚拟线程的 newVirtualThreadPerTaskExecutor
+     * @param executor
+     * @return
+     */
+    public static ExecutorService wrap(ExecutorService executor) {
+        return new UserContextExecutorService(executor);
+    }
+
+    private static UserDTO replace(UserDTO user) {
+        UserDTO previous = tl.get();
+        if (user == null) {
+            tl.remove();
+        } else {
+            tl.set(user);
+        }
+        return previous;
+    }
 }
@@ -0,0 +1,21 @@
+-- 1.参数列表
+-- 1.1.活跃用户集合key
+local activeKey = KEYS[1]
+-- 1.2.用户id
+local userId = ARGV[1]
+-- 1.3.当前时间戳
+local now = ARGV[2]
+-- 1.4.活跃截止时间戳
+local activeSince = tonumber(ARGV[3])
+
+-- 2.脚本业务
+-- 2.1.读取上次活跃时间 zscore activeKey userId
+local lastActive = redis.call('zscore', activeKey, userId)
+-- 2.2.刷新活跃时间 zadd activeKey now userId
+redis.call('zadd', activeKey, now, userId)
+-- 2.3.之前一直活跃，收件箱是完整的，返回0
+if (lastActive and tonumber(lastActive) >= activeSince) then
+    return 0
+end
+-- 2.4.之前不活跃，推送时被跳过，需要重建收件箱，返回1
+return 1
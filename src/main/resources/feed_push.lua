@@ -0,0 +1,30 @@
+-- 1.参数列表
+-- 1.1.活跃用户集合key
+local activeKey = KEYS[1]
+-- 1.2.笔记id
+local blogId = ARGV[1]
+-- 1.3.发布时间戳
+local time = ARGV[2]
+-- 1.4.活跃截止时间戳，在此之后访问过feed的用户才推送
+local activeSince = tonumber(ARGV[3])
+-- 1.5.收件箱最多保留的条数
+local maxSize = tonumber(ARGV[4])
+-- 1.6.ARGV[5]之后是这一批粉丝的id
+
+-- 2.脚本业务
+local pushed = {}
+for i = 5, #ARGV do
+    local userId = ARGV[i]
+    -- 2.1.判断粉丝是否活跃 zscore activeKey userId
+    local lastActive = redis.call('zscore', activeKey, userId)
+    if (lastActive and tonumber(lastActive) >= activeSince) then
+        -- 2.2.推送到收件箱 zadd feed:userId time blogId
+        local inboxKey = 'feed:' .. userId
+        redis.call('zadd', inboxKey, time, blogId)
+        -- 2.3.只保留最新的maxSize条 zremrangebyrank feed:userId 0 -(maxSize+1)
+        redis.call('zremrangebyrank', inboxKey, 0, -(maxSize + 1))
+        table.insert(pushed, userId)
+    end
+end
+-- 3.返回实际推送到收件箱的粉丝id
+return pushed
@@ -0,0 +1,63 @@
+-- 1.参数列表
+-- 1.1.关注集合key，如 follows:{userId}
+local followsKey = KEYS[1]
+-- 1.2.粉丝集合key，如 fans:{followUserId}
+local fansKey = KEYS[2]
+-- 1.3.关注数、粉丝数增量key，等待定时任务同步到数据库
+local followeeDeltaKey = KEYS[3]
+local fansDeltaKey = KEYS[4]
+-- 1.4.可能认识的人：待刷新的用户集合key，以及我的推荐结果key
+local dirtyKey = KEYS[5]
+local recommendKey = KEYS[6]
+-- 1.5.我的粉丝集合key，如 fans:{userId}
+local myFansKey = KEYS[7]
+-- 1.6.用户id
+local userId = ARGV[1]
+-- 1.7.被关注的用户id
+local followUserId = ARGV[2]
+-- 1.8.操作，1：关注，0：取关
+local isFollow = ARGV[3] == '1'
+-- 1.9.最多标记的粉丝数
+local fansSample = tonumber(ARGV[4])
+
+-- 只更新已经加载到Redis的集合，未加载的集合在下次使用时从数据库重建，
+-- 变更记录到 {key}:pending，重建时在数据库结果之上重放，避免正在进行的重建丢失这次变更
+local function update(key, member)
+    if (redis.call('exists', key) == 0) then
+        local pendingKey = key .. ':pending'
+        redis.call('hset', pendingKey, member, isFollow and '1' or '0')
+        redis.call('expire', pendingKey, 60)
+        return
+    end
+    if (isFollow) then
+        redis.call('sadd', key, member)
+    else
+        redis.call('srem', key, member)
+    end
+end
+
+-- 2.脚本业务
+-- 2.1.更新关注集合 sadd/srem followsKey followUserId
+update(followsKey, followUserId)
+-- 2.2.更新粉丝集合 sadd/srem fansKey userId
+update(fansKey, userId)
+-- 2.3.我的关注数、对方的粉丝数增量 +1/-1
+local delta = isFollow and 1 or -1
+redis.call('hincrby', followeeDeltaKey, userId, delta)
+redis.call('hincrby', fansDeltaKey, followUserId, delta)
+-- 2.4.我的二度关系变了，等待离线任务刷新推荐；已经关注的人立即从推荐中移除
+redis.call('sadd', dirtyKey, userId)
+if (isFollow) then
+    redis.call('zrem', recommendKey, followUserId)
+end
+-- 2.5.我的粉丝的二度关系也变了，大V只随机标记一部分粉丝；
+-- 没有标记到的粉丝（以及粉丝集合未加载时的所有粉丝）在推荐过期（RECOMMEND_TTL）后重新计算
+if (redis.call('exists', myFansKey) == 1) then
+    local fans = redis.call('srandmember', myFansKey, fansSample)
+    for i = 1, #fans do
+        if (fans[i] ~= '0') then
+            redis.call('sadd', dirtyKey, fans[i])
+        end
+    end
+end
+return 0
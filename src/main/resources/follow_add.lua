@@ -0,0 +1,17 @@
+-- 1.参数列表
+-- 1.1.关注集合或粉丝集合key
+local key = KEYS[1]
+-- 1.2.ARGV：要添加的成员
+
+-- 2.脚本业务
+-- 2.1.集合已加载，直接添加
+if (redis.call('exists', key) == 1) then
+    return redis.call('sadd', key, unpack(ARGV))
+end
+-- 2.2.集合未加载，与follow.lua相同，记录到 {key}:pending，由重建集合时重放
+local pendingKey = key .. ':pending'
+for i = 1, #ARGV do
+    redis.call('hset', pendingKey, ARGV[i], '1')
+end
+redis.call('expire', pendingKey, 60)
+return 0
@@ -0,0 +1,55 @@
+-- 1.参数列表
+-- 1.1.遍历的集合key（两个关注集合中较小的一个）
+local scanKey = KEYS[1]
+-- 1.2.判断是否包含的集合key（较大的一个）
+local checkKey = KEYS[2]
+-- 1.3.SSCAN游标，第一页为0
+local cursor = ARGV[1]
+-- 1.4.每页条数
+local limit = tonumber(ARGV[2])
+-- 1.5.每次调用最多遍历的成员数，避免交集很稀疏时一次扫描过多
+local budget = tonumber(ARGV[3])
+-- 1.6.是否估算共同关注总数，1：是
+local withCount = ARGV[4] == '1'
+-- 1.7.估算总数时的采样数
+local sampleSize = tonumber(ARGV[5])
+
+-- 2.脚本业务
+-- 2.1.分块遍历较小的集合，逐个判断是否在较大的集合中，跳过占位成员0
+local ids = {}
+local scanned = 0
+repeat
+    local res = redis.call('sscan', scanKey, cursor, 'COUNT', limit)
+    cursor = res[1]
+    for _, member in ipairs(res[2]) do
+        scanned = scanned + 1
+        if (member ~= '0' and redis.call('sismember', checkKey, member) == 1) then
+            table.insert(ids, member)
+        end
+    end
+until (cursor == '0' or #ids >= limit or scanned >= budget)
+
+-- 2.2.估算总数：随机采样较小集合中的成员，按命中比例乘以集合大小，集合不超过采样数时是精确值
+local total = -1
+if (withCount) then
+    local size = redis.call('scard', scanKey) - redis.call('sismember', scanKey, '0')
+    local hits = 0
+    local sampled = 0
+    for _, member in ipairs(redis.call('srandmember', scanKey, sampleSize)) do
+        if (member ~= '0') then
+            sampled = sampled + 1
+            if (redis.call('sismember', checkKey, member) == 1) then
+                hits = hits + 1
+            end
+        end
+    end
+    total = 0
+    if (sampled > 0) then
+        total = math.floor(size * hits / sampled + 0.5)
+    end
+end
+
+-- 3.返回 {下一页游标, 总数（-1代表未估算）, 共同关注的id...}
+table.insert(ids, 1, tostring(total))
+table.insert(ids, 1, cursor)
+return ids
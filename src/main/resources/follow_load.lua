@@ -0,0 +1,30 @@
+-- 1.参数列表
+-- 1.1.要重建的集合key
+local key = KEYS[1]
+-- 1.2.重建期间的关注变更，field为成员，value为1：关注，0：取关
+local pendingKey = key .. ':pending'
+-- 1.3.ARGV：从数据库查询到的全部成员
+
+-- 2.脚本业务
+-- 2.1.集合已被其它请求重建，放弃写入
+if (redis.call('exists', key) == 1) then
+    return 0
+end
+-- 2.2.写入占位成员0，空集合也能与未加载区分开
+redis.call('sadd', key, '0')
+-- 2.3.分批写入成员，避免一次unpack过多参数
+local batch = 1000
+for i = 1, #ARGV, batch do
+    redis.call('sadd', key, unpack(ARGV, i, math.min(i + batch - 1, #ARGV)))
+end
+-- 2.4.重放查询数据库前后发生的变更，已包含在查询结果中的变更重放一次结果不变
+local pending = redis.call('hgetall', pendingKey)
+for i = 1, #pending, 2 do
+    if (pending[i + 1] == '1') then
+        redis.call('sadd', key, pending[i])
+    else
+        redis.call('srem', key, pending[i])
+    end
+end
+redis.call('del', pendingKey)
+return 1
@@ -0,0 +1,6 @@
+-- 原子地取出hash中的全部数据并删除，用于把累计的增量同步到数据库
+-- 这里的 KEYS[1] 就是增量hash的key
+local data = redis.call('hgetall', KEYS[1])
+redis.call('del', KEYS[1])
+-- 返回 field1, value1, field2, value2 ...
+return data
@@ -0,0 +1,54 @@
+-- 1.参数列表
+-- 1.1.点赞用户集合key，如 blog:liked:{blogId}
+local likedKey = KEYS[1]
+-- 1.2.点赞数增量key，等待定时任务同步到数据库
+local deltaKey = KEYS[2]
+-- 1.3.被点赞的id
+local targetId = ARGV[1]
+-- 1.4.用户id
+local userId = ARGV[2]
+-- 1.5.点赞时间戳
+local time = ARGV[3]
+-- 1.6.可选：热度排行榜key，以及数据库中的点赞数、时间衰减系数，用于刷新热度
+local hotKey = KEYS[3]
+local baseLiked = tonumber(ARGV[4])
+local decay = tonumber(ARGV[5])
+-- 1.7.可选：点赞排行前5名的预览key，前5名变化时重新生成
+local topKey = KEYS[4]
+
+-- 刷新前5名预览，只有变更的用户排在前5名时才需要
+local function refreshTop(rank)
+    if (topKey and rank and rank < 5) then
+        redis.call('set', topKey, table.concat(redis.call('zrange', likedKey, 0, 4), ','))
+    end
+end
+
+-- 2.脚本业务
+-- 2.1.判断用户是否已经点赞 zrank likedKey userId
+local rank = redis.call('zrank', likedKey, userId)
+if (rank) then
+    -- 2.2.已点赞，取消点赞 zrem likedKey userId
+    redis.call('zrem', likedKey, userId)
+    -- 2.3.点赞数增量-1
+    local delta = redis.call('hincrby', deltaKey, targetId, -1)
+    -- 2.4.刷新热度 zadd hotKey (baseLiked + delta) * decay targetId
+    if (hotKey) then
+        redis.call('zadd', hotKey, math.max(baseLiked + delta, 0) * decay, targetId)
+    end
+    -- 2.5.刷新前5名预览
+    refreshTop(rank)
+    -- 2.6.返回 {0：未点赞, 尚未同步到数据库的点赞数增量}
+    return {0, delta}
+end
+-- 2.7.未点赞，点赞 zadd likedKey time userId
+redis.call('zadd', likedKey, time, userId)
+-- 2.8.点赞数增量+1
+local delta = redis.call('hincrby', deltaKey, targetId, 1)
+-- 2.9.刷新热度
+if (hotKey) then
+    redis.call('zadd', hotKey, math.max(baseLiked + delta, 0) * decay, targetId)
+end
+-- 2.10.刷新前5名预览
+refreshTop(redis.call('zrank', likedKey, userId))
+-- 2.11.返回 {1：已点赞, 尚未同步到数据库的点赞数增量}
+return {1, delta}
@@ -0,0 +1,56 @@
+-- 一次检查请求匹配的所有限流策略：全部放行时才扣减额度，被某个策略拒绝时不消耗其它策略的额度
+-- KEYS[i] 第i个策略的key
+-- ARGV 每个策略4个参数：算法，之后
+--   token-bucket：桶的容量，每秒补充的令牌数，未使用。key为hash：tokens 剩余令牌数，ts 上次补充令牌的时间（毫秒）
+--   sliding-window：窗口（毫秒），窗口内最多放行的次数，请求的唯一标识。key为放行记录的zset，score 为放行时间（毫秒）
+-- 返回0表示放行，否则为拒绝请求的策略序号（从1开始）
+-- 使用Redis服务器的时间，避免各实例时钟不一致
+redis.replicate_commands()
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+-- 1.检查所有策略，只读取和清理过期数据，不扣减额度
+local tokens = {}
+for i = 1, #KEYS do
+    local algorithm = ARGV[i * 4 - 3]
+    if (algorithm == 'token-bucket') then
+        local capacity = tonumber(ARGV[i * 4 - 2])
+        local rate = tonumber(ARGV[i * 4 - 1])
+        local bucket = redis.call('hmget', KEYS[i], 'tokens', 'ts')
+        local remain = tonumber(bucket[1])
+        local ts = tonumber(bucket[2])
+        if (remain == nil or ts == nil) then
+            remain = capacity
+            ts = now
+        end
+        -- 按流逝的时间补充令牌
+        remain = math.min(capacity, remain + math.max(0, now - ts) * rate / 1000)
+        if (remain < 1) then
+            return i
+        end
+        tokens[i] = remain
+    else
+        local window = tonumber(ARGV[i * 4 - 2])
+        local limit = tonumber(ARGV[i * 4 - 1])
+        -- 删除窗口之外的记录
+        redis.call('zremrangebyscore', KEYS[i], 0, now - window)
+        if (redis.call('zcard', KEYS[i]) >= limit) then
+            return i
+        end
+    end
+end
+
+-- 2.全部放行，扣减每个策略的额度
+for i = 1, #KEYS do
+    if (ARGV[i * 4 - 3] == 'token-bucket') then
+        local capacity = tonumber(ARGV[i * 4 - 2])
+        local rate = tonumber(ARGV[i * 4 - 1])
+        redis.call('hset', KEYS[i], 'tokens', tostring(tokens[i] - 1), 'ts', tostring(now))
+        -- 超过从空桶补满所需的时间后，桶一定是满的，key可以删除
+        redis.call('pexpire', KEYS[i], math.ceil(capacity / rate * 1000) + 1000)
+    else
+        redis.call('zadd', KEYS[i], now, ARGV[i * 4])
+        redis.call('pexpire', KEYS[i], tonumber(ARGV[i * 4 - 2]))
+    end
+end
+return 0
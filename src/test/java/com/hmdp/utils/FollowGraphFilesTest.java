@@ -0,0 +1,159 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FollowGraphFilesTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readEdgesSkipsInvalidLinesAndBatches() throws IOException {
+        Path file = dir.resolve("follows.csv");
+        Files.write(file, Arrays.asList(
+                "# userId,followUserId",
+                "1,2",
+                "",
+                " 1 , 3 ",
+                "4,4",
+                "abc,5",
+                "6",
+                "2,1",
+                "3,1"
+        ), StandardCharsets.UTF_8);
+
+        List<Integer> batchSizes = new ArrayList<>();
+        List<long[]> edges = new ArrayList<>();
+        long total = FollowGraphFiles.readEdges(file, 2, batch -> {
+            batchSizes.add(batch.size());
+            edges.addAll(batch);
+        });
+
+        assertEquals(4, total);
+        assertEquals(Arrays.asList(2, 2), batchSizes);
+        assertArrayEquals(new long[]{1, 2}, edges.get(0));
+        assertArrayEquals(new long[]{1, 3}, edges.get(1));
+        assertArrayEquals(new long[]{2, 1}, edges.get(2));
+        assertArrayEquals(new long[]{3, 1}, edges.get(3));
+    }
+
+    @Test
+    void readEdgesFlushesLastPartialBatch() throws IOException {
+        Path file = dir.resolve("follows.csv");
+        Files.write(file, Arrays.asList("1,2", "1,3", "1,4"), StandardCharsets.UTF_8);
+
+        List<Integer> batchSizes = new ArrayList<>();
+        long total = FollowGraphFiles.readEdges(file, 2, batch -> batchSizes.add(batch.size()));
+
+        assertEquals(3, total);
+        assertEquals(Arrays.asList(2, 1), batchSizes);
+    }
+
+    @Test
+    void varLongRoundTrip() throws IOException {
+        long[] values = {0, 1, 127, 128, 300, 16383, 16384, Integer.MAX_VALUE, 1L << 35, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (long value : values) {
+            FollowGraphFiles.writeVarLong(out, value);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (long value : values) {
+            assertEquals(value, FollowGraphFiles.readVarLong(in));
+        }
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    void varLongUsesOneByteBelow128() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FollowGraphFiles.writeVarLong(new DataOutputStream(bytes), 127);
+        assertEquals(1, bytes.size());
+        FollowGraphFiles.writeVarLong(new DataOutputStream(bytes), 128);
+        assertEquals(3, bytes.size());
+    }
+
+    @Test
+    void snapshotRoundTripOnFile() throws IOException {
+        long[][] edges = {{1, 2}, {1, 3}, {1, 1000}, {5, 1}, {1L << 40, 7}, {1L << 40, (1L << 40) + 1}};
+        Path file = dir.resolve("follows.bin");
+        try (FollowGraphFiles.SnapshotWriter writer = new FollowGraphFiles.SnapshotWriter(Files.newOutputStream(file))) {
+            for (long[] edge : edges) {
+                writer.write(edge[0], edge[1]);
+            }
+            assertEquals(edges.length, writer.getEdges());
+        }
+
+        try (FollowGraphFiles.SnapshotReader reader = new FollowGraphFiles.SnapshotReader(Files.newInputStream(file))) {
+            assertTrue(reader.next());
+            assertEquals(1, reader.getUserId());
+            assertArrayEquals(new long[]{2, 3, 1000}, reader.getFollowUserIds());
+            assertTrue(reader.next());
+            assertEquals(5, reader.getUserId());
+            assertArrayEquals(new long[]{1}, reader.getFollowUserIds());
+            assertTrue(reader.next());
+            assertEquals(1L << 40, reader.getUserId());
+            assertArrayEquals(new long[]{7, (1L << 40) + 1}, reader.getFollowUserIds());
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    void snapshotWithManyFolloweesGrowsBuffer() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (FollowGraphFiles.SnapshotWriter writer = new FollowGraphFiles.SnapshotWriter(bytes)) {
+            for (long i = 1; i <= 200; i++) {
+                writer.write(9, i * 3);
+            }
+        }
+        try (FollowGraphFiles.SnapshotReader reader = new FollowGraphFiles.SnapshotReader(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertTrue(reader.next());
+            assertEquals(9, reader.getUserId());
+            assertEquals(200, reader.getFollowUserIds().length);
+            assertEquals(600, reader.getFollowUserIds()[199]);
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    void emptySnapshotHasOnlyHeader() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new FollowGraphFiles.SnapshotWriter(bytes).close();
+        assertEquals(5, bytes.size());
+        try (FollowGraphFiles.SnapshotReader reader = new FollowGraphFiles.SnapshotReader(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    void writerRejectsUnsortedEdges() throws IOException {
+        try (FollowGraphFiles.SnapshotWriter writer = new FollowGraphFiles.SnapshotWriter(new ByteArrayOutputStream())) {
+            writer.write(2, 5);
+            assertThrows(IllegalArgumentException.class, () -> writer.write(2, 5));
+            assertThrows(IllegalArgumentException.class, () -> writer.write(2, 4));
+            assertThrows(IllegalArgumentException.class, () -> writer.write(1, 9));
+        }
+    }
+
+    @Test
+    void readerRejectsOtherFiles() {
+        InputStream in = new ByteArrayInputStream("not a snapshot".getBytes(StandardCharsets.UTF_8));
+        assertThrows(IOException.class, () -> new FollowGraphFiles.SnapshotReader(in));
+    }
+}
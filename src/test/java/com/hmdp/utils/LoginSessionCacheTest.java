@@ -0,0 +1,68 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class LoginSessionCacheTest {
+
+    private StringRedisTemplate stringRedisTemplate;
+    private LoginSessionCache cache;
+
+    @BeforeEach
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        cache = new LoginSessionCache(stringRedisTemplate, mock(RedisMessageListenerContainer.class));
+    }
+
+    @Test
+    void hitInsideRefreshIntervalSendsNoRedisCommand() {
+        Map<String, String> hash = new HashMap<>();
+        hash.put("id", "1");
+        hash.put("nickName", "user_a");
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class))).thenReturn(Arrays.asList(hash, true));
+
+        UserDTO first = cache.get("t1");
+        assertEquals(1L, first.getId());
+        verify(stringRedisTemplate, times(1)).executePipelined(any(RedisCallback.class));
+
+        for (int i = 0; i < 10; i++) {
+            assertSame(first, cache.get("t1"));
+        }
+        verifyNoMoreInteractions(stringRedisTemplate);
+    }
+
+    @Test
+    void invalidatedTokenIsLoadedAgain() {
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class)))
+                .thenReturn(Arrays.asList(Collections.singletonMap("id", "1"), true))
+                .thenReturn(Arrays.asList(Collections.emptyMap(), false));
+
+        assertNotNull(cache.get("t1"));
+        cache.invalidate("t1");
+        assertNull(cache.get("t1"));
+        verify(stringRedisTemplate, times(2)).executePipelined(any(RedisCallback.class));
+    }
+
+    @Test
+    void unknownTokenIsNotCached() {
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class)))
+                .thenReturn(Arrays.asList(Collections.emptyMap(), false));
+
+        assertNull(cache.get("t2"));
+        assertNull(cache.get("t2"));
+        verify(stringRedisTemplate, times(2)).executePipelined(any(RedisCallback.class));
+    }
+}
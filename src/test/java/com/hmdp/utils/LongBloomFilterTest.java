@@ -0,0 +1,59 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongBloomFilterTest {
+
+    @Test
+    void emptyFilterContainsNothing() {
+        LongBloomFilter filter = new LongBloomFilter(1024, 3);
+        for (long value = -100; value < 100; value++) {
+            assertFalse(filter.mightContain(value));
+        }
+    }
+
+    @Test
+    void noFalseNegatives() {
+        LongBloomFilter filter = new LongBloomFilter(1 << 16, 5);
+        for (long value = 0; value < 5_000; value++) {
+            filter.add(value * 31 + 7);
+        }
+        filter.add(0);
+        filter.add(-1);
+        filter.add(Long.MAX_VALUE);
+        filter.add(Long.MIN_VALUE);
+        for (long value = 0; value < 5_000; value++) {
+            assertTrue(filter.mightContain(value * 31 + 7));
+        }
+        assertTrue(filter.mightContain(0));
+        assertTrue(filter.mightContain(-1));
+        assertTrue(filter.mightContain(Long.MAX_VALUE));
+        assertTrue(filter.mightContain(Long.MIN_VALUE));
+    }
+
+    @Test
+    void falsePositiveRateIsLow() {
+        // 每个元素约13位、5个哈希函数，理论误判率约0.3%
+        LongBloomFilter filter = new LongBloomFilter(1 << 16, 5);
+        for (long value = 1; value <= 5_000; value++) {
+            filter.add(value);
+        }
+        int falsePositives = 0;
+        for (long value = 1_000_000; value < 1_100_000; value++) {
+            if (filter.mightContain(value)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 1_000, "误判次数: " + falsePositives);
+    }
+
+    @Test
+    void smallSizeIsRoundedUp() {
+        // 小于64位的大小按64位处理，不会越界
+        LongBloomFilter filter = new LongBloomFilter(1, 2);
+        filter.add(12345);
+        assertTrue(filter.mightContain(12345));
+    }
+}
@@ -0,0 +1,76 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongIntHashMapTest {
+
+    @Test
+    void addToAccumulates() {
+        LongIntHashMap map = new LongIntHashMap(4);
+        map.addTo(7, 1);
+        map.addTo(7, 2);
+        map.addTo(-3, 5);
+        assertEquals(3, map.get(7));
+        assertEquals(5, map.get(-3));
+        assertEquals(0, map.get(8));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    void zeroKeyIsStoredSeparately() {
+        LongIntHashMap map = new LongIntHashMap(4);
+        assertEquals(0, map.get(0));
+        map.addTo(0, 4);
+        map.addTo(0, 1);
+        assertEquals(5, map.get(0));
+        assertEquals(1, map.size());
+
+        Map<Long, Integer> entries = new HashMap<>();
+        map.forEach(entries::put);
+        assertEquals(1, entries.size());
+        assertEquals(5, entries.get(0L));
+    }
+
+    @Test
+    void matchesHashMapAcrossRehash() {
+        Random random = new Random(42);
+        LongIntHashMap map = new LongIntHashMap(2);
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 100_000; i++) {
+            // 键的范围较小，保证有重复累加；包含 0 和负数
+            long key = random.nextInt(20_000) - 1_000;
+            int delta = random.nextInt(10) + 1;
+            map.addTo(key, delta);
+            expected.merge(key, delta, Integer::sum);
+        }
+        assertEquals(expected.size(), map.size());
+        expected.forEach((key, value) -> assertEquals((int) value, map.get(key)));
+
+        Map<Long, Integer> actual = new HashMap<>();
+        map.forEach((key, value) -> assertNull(actual.put(key, value)));
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void clearRemovesAllEntries() {
+        LongIntHashMap map = new LongIntHashMap(4);
+        for (long key = 0; key < 100; key++) {
+            map.addTo(key, 1);
+        }
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(0, map.get(0));
+        assertEquals(0, map.get(50));
+        map.forEach((key, value) -> fail("清空后不应该还有元素"));
+
+        map.addTo(50, 2);
+        assertEquals(2, map.get(50));
+        assertEquals(1, map.size());
+    }
+}
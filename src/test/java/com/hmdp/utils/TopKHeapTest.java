@@ -0,0 +1,93 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopKHeapTest {
+
+    @Test
+    void keepsHighestScores() {
+        TopKHeap heap = new TopKHeap(3);
+        heap.offer(1, 10);
+        heap.offer(2, 50);
+        heap.offer(3, 20);
+        heap.offer(4, 5);
+        heap.offer(5, 40);
+        assertEquals(3, heap.size());
+        assertEquals(sorted(new long[]{2, 5, 3}), sorted(ids(heap)));
+        // 堆顶是保留下来的最低分
+        assertEquals(20, heap.scoreAt(0));
+    }
+
+    @Test
+    void tiesPreferLargerId() {
+        TopKHeap heap = new TopKHeap(2);
+        heap.offer(1, 7);
+        heap.offer(3, 7);
+        heap.offer(2, 7);
+        assertEquals(sorted(new long[]{2, 3}), sorted(ids(heap)));
+    }
+
+    @Test
+    void fewerElementsThanK() {
+        TopKHeap heap = new TopKHeap(10);
+        heap.offer(1, 1);
+        heap.offer(2, 2);
+        assertEquals(2, heap.size());
+        assertEquals(sorted(new long[]{1, 2}), sorted(ids(heap)));
+    }
+
+    @Test
+    void zeroCapacityIgnoresOffers() {
+        TopKHeap heap = new TopKHeap(0);
+        heap.offer(1, 1);
+        assertEquals(0, heap.size());
+    }
+
+    @Test
+    void matchesSortingOnRandomInput() {
+        Random random = new Random(7);
+        int k = 50;
+        TopKHeap heap = new TopKHeap(k);
+        List<long[]> all = new ArrayList<>();
+        for (long id = 1; id <= 10_000; id++) {
+            int score = random.nextInt(500);
+            heap.offer(id, score);
+            all.add(new long[]{id, score});
+        }
+        List<Long> expected = all.stream()
+                .sorted(Comparator.<long[]>comparingLong(e -> e[1]).thenComparingLong(e -> e[0]).reversed())
+                .limit(k)
+                .map(e -> e[0])
+                .sorted()
+                .collect(Collectors.toList());
+        assertEquals(expected, sorted(ids(heap)));
+        for (int i = 0; i < heap.size(); i++) {
+            assertEquals(all.get((int) heap.idAt(i) - 1)[1], heap.scoreAt(i));
+        }
+    }
+
+    private static long[] ids(TopKHeap heap) {
+        long[] ids = new long[heap.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = heap.idAt(i);
+        }
+        return ids;
+    }
+
+    private static List<Long> sorted(long[] ids) {
+        List<Long> list = new ArrayList<>();
+        for (long id : ids) {
+            list.add(id);
+        }
+        list.sort(null);
+        return list;
+    }
+}
@@ -0,0 +1,67 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserHashCodecTest {
+
+    @Test
+    void roundTrip() {
+        UserDTO user = new UserDTO();
+        user.setId(1010L);
+        user.setNickName("可可今天不吃肉");
+        user.setIcon("/imgs/icons/kaixin.jpg");
+
+        Map<String, String> hash = UserHashCodec.encode(user);
+        assertEquals("1010", hash.get("id"));
+
+        UserDTO decoded = UserHashCodec.decode(hash);
+        assertEquals(user.getId(), decoded.getId());
+        assertEquals(user.getNickName(), decoded.getNickName());
+        assertEquals(user.getIcon(), decoded.getIcon());
+    }
+
+    @Test
+    void nullFieldsAreNotStored() {
+        UserDTO user = new UserDTO();
+        user.setId(2L);
+
+        Map<String, String> hash = UserHashCodec.encode(user);
+        assertEquals(Collections.singletonMap("id", "2"), hash);
+
+        UserDTO decoded = UserHashCodec.decode(hash);
+        assertEquals(2L, decoded.getId());
+        assertNull(decoded.getNickName());
+        assertNull(decoded.getIcon());
+    }
+
+    @Test
+    void missingIdDecodesToNull() {
+        assertNull(UserHashCodec.decode(null));
+        assertNull(UserHashCodec.decode(Collections.emptyMap()));
+        Map<String, String> hash = new HashMap<>();
+        hash.put("nickName", "user_x");
+        assertNull(UserHashCodec.decode(hash));
+    }
+
+    @Test
+    void toDTOCopiesPublicFields() {
+        User user = new User();
+        user.setId(3L);
+        user.setNickName("user_abc");
+        user.setIcon("/imgs/icon.png");
+        user.setPhone("13800000000");
+
+        UserDTO dto = UserHashCodec.toDTO(user);
+        assertEquals(3L, dto.getId());
+        assertEquals("user_abc", dto.getNickName());
+        assertEquals("/imgs/icon.png", dto.getIcon());
+    }
+}